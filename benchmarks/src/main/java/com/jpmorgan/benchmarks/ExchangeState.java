@@ -0,0 +1,71 @@
+package com.jpmorgan.benchmarks;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.jpmorgan.RetentionPolicy;
+import com.jpmorgan.StockExchange;
+import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.Ticker;
+import com.jpmorgan.model.Trade;
+
+/**
+ * Stock exchange shared by the threads of a benchmark, pre-filled with a history of trades ending now.
+ * Trades are one millisecond apart and retained for 15 minutes, so that large histories (up to 100M trades,
+ * about 28 hours) keep a bounded heap; smaller histories fit entirely in the pricing window.
+ * @author bdinos
+ */
+@State(Scope.Benchmark)
+public class ExchangeState {
+	static final int PRICES = 1024;
+
+	@Param({ "1000", "1000000", "100000000" })
+	public int trades;
+
+	@Param({ "5", "1000" })
+	public int stocks;
+
+	StockExchange stockExchange;
+	Stock[] stockUniverse;
+	BigDecimal[] prices;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		stockExchange = new StockExchange();
+		stockExchange.setRetentionPolicy(new RetentionPolicy(RetentionPolicy.MIN_HORIZON));
+		stockUniverse = new Stock[stocks];
+		for(int i = 0; i < stocks; i++) {
+			stockUniverse[i] = Stock.register("BENCH" + i, i % 10 == 0 ? Stock.Type.PREFERRED : Stock.Type.COMMON);
+			stockExchange.registerTicker(new Ticker(stockUniverse[i], BigDecimal.valueOf(1 + i % 7), BigDecimal.ONE, BigDecimal.valueOf(100)));
+		}
+		prices = new BigDecimal[PRICES];
+		for(int i = 0; i < PRICES; i++) {
+			prices[i] = BigDecimal.valueOf(10_000 + (i * 7919) % 5000, 2);
+		}
+		Instant start = Instant.now().minusMillis(trades);
+		for(int i = 0; i < trades; i++) {
+			stockExchange.recordTrade(trade(start.plusMillis(i), i));
+		}
+	}
+
+	Stock stock(long i) {
+		return stockUniverse[(int) (i % stocks)];
+	}
+
+	/**
+  	 * @return a trade of the i-th stock (modulo the number of stocks), performed now
+  	 */
+	Trade trade(long i) {
+		return Trade.buy(stock(i), 1 + (int) (i % 100), prices[(int) (i & (PRICES - 1))]);
+	}
+
+	Trade trade(Instant timestamp, long i) {
+		return Trade.buy(timestamp, stock(i), 1 + (int) (i % 100), prices[(int) (i & (PRICES - 1))]);
+	}
+}
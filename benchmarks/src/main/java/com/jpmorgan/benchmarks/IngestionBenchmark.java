@@ -0,0 +1,65 @@
+package com.jpmorgan.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.model.Trade;
+
+/**
+ * Throughput of recording trades, one by one and in batches, from one thread and from several threads.
+ * @author bdinos
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class IngestionBenchmark {
+	static final int BATCH_SIZE = 256;
+
+	@State(Scope.Thread)
+	public static class Feed {
+		long next;
+		Trade[] batch = new Trade[BATCH_SIZE];
+
+		@Setup
+		public void setup() {
+			next = System.identityHashCode(this);
+		}
+	}
+
+	@Benchmark
+	public void recordTrade(ExchangeState state, Feed feed) throws TickerNotFoundException {
+		state.stockExchange.recordTrade(state.trade(feed.next++));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public void recordTrades(ExchangeState state, Feed feed) throws TickerNotFoundException {
+		Trade[] batch = feed.batch;
+		for(int i = 0; i < batch.length; i++) {
+			batch[i] = state.trade(feed.next++);
+		}
+		state.stockExchange.recordTrades(Arrays.asList(batch));
+	}
+
+	@Benchmark
+	@Threads(4)
+	public void recordTradeFourThreads(ExchangeState state, Feed feed) throws TickerNotFoundException {
+		state.stockExchange.recordTrade(state.trade(feed.next++));
+	}
+}
@@ -0,0 +1,78 @@
+package com.jpmorgan.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jpmorgan.StockExchange.NotEnoughDataPointsException;
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+
+/**
+ * Throughput of workloads mixing trade recording and queries: a single thread interleaving them according to
+ * a write percentage, and groups of dedicated writer and reader threads sharing the exchange.
+ * @author bdinos
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MixedWorkloadBenchmark {
+	@State(Scope.Thread)
+	public static class Client {
+		@Param({ "10", "50", "90" })
+		public int writePercent;
+
+		long next;
+	}
+
+	@Benchmark
+	public Object interleaved(ExchangeState state, Client client) throws TickerNotFoundException, NotEnoughDataPointsException {
+		long i = client.next++;
+		if(i % 100 < client.writePercent) {
+			state.stockExchange.recordTrade(state.trade(i));
+			return null;
+		}
+		return i % 10 == 0 ? state.stockExchange.getGBCEAllShareIndex() : state.stockExchange.getStockPrice(state.stock(i));
+	}
+
+	@Benchmark
+	@Group("oneWriterFourReaders")
+	@GroupThreads(1)
+	public void writer(ExchangeState state, Client client) throws TickerNotFoundException {
+		state.stockExchange.recordTrade(state.trade(client.next++));
+	}
+
+	@Benchmark
+	@Group("oneWriterFourReaders")
+	@GroupThreads(4)
+	public BigDecimal reader(ExchangeState state, Client client) throws NotEnoughDataPointsException {
+		return state.stockExchange.getStockPrice(state.stock(client.next++));
+	}
+
+	@Benchmark
+	@Group("fourWritersOneReader")
+	@GroupThreads(4)
+	public void writers(ExchangeState state, Client client) throws TickerNotFoundException {
+		state.stockExchange.recordTrade(state.trade(client.next++));
+	}
+
+	@Benchmark
+	@Group("fourWritersOneReader")
+	@GroupThreads(1)
+	public BigDecimal indexReader(ExchangeState state) {
+		return state.stockExchange.getGBCEAllShareIndex();
+	}
+}
@@ -0,0 +1,93 @@
+package com.jpmorgan.benchmarks;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jpmorgan.FixedPoint;
+import com.jpmorgan.PrecisionPolicy;
+import com.jpmorgan.RetentionPolicy;
+import com.jpmorgan.StockExchange;
+import com.jpmorgan.StockExchange.NotEnoughDataPointsException;
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.Ticker;
+import com.jpmorgan.model.Trade;
+
+/**
+ * Throughput of recording trades and of calculating a stock price under each precision policy. Trades are one
+ * millisecond apart and retained for 15 minutes, so the store stays bounded however long an iteration lasts.
+ * @author bdinos
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrecisionBenchmark {
+	private static final int PRICES = 4096;
+
+	@Param({ "DEFAULT", "EXACT", "DECIMAL64", "FIXED_POINT" })
+	public String policy;
+
+	private StockExchange stockExchange;
+	private BigDecimal[] prices;
+	private Instant start;
+	private long next;
+
+	@Setup(Level.Iteration)
+	public void setup() throws Exception {
+		stockExchange = new StockExchange(precisionPolicy(policy));
+		stockExchange.registerTicker(new Ticker(Stock.TEA_C, BigDecimal.ONE, BigDecimal.valueOf(100)));
+		stockExchange.setRetentionPolicy(new RetentionPolicy(RetentionPolicy.MIN_HORIZON));
+		prices = new BigDecimal[PRICES];
+		for(int i = 0; i < PRICES; i++) {
+			prices[i] = BigDecimal.valueOf(10_000 + i % 997, 2);
+		}
+		start = Instant.now();
+		for(next = 0; next < PRICES; ) {
+			recordTrade();
+		}
+	}
+
+	static PrecisionPolicy precisionPolicy(String policy) {
+		switch(policy) {
+		case "DEFAULT":
+			return PrecisionPolicy.DEFAULT;
+		case "EXACT":
+			return PrecisionPolicy.exact(StockExchange.MATH_CTX);
+		case "DECIMAL64":
+			return new PrecisionPolicy(MathContext.DECIMAL64, MathContext.DECIMAL64);
+		case "FIXED_POINT":
+			return PrecisionPolicy.fixedPoint(new FixedPoint(4), StockExchange.MATH_CTX);
+		default:
+			throw new IllegalArgumentException(policy);
+		}
+	}
+
+	@Benchmark
+	public void recordTrade() throws TickerNotFoundException {
+		long i = next++;
+		stockExchange.recordTrade(Trade.buy(start.plusMillis(i), Stock.TEA_C, 1 + (int) (i % 100), prices[(int) (i & (PRICES - 1))]));
+	}
+
+	@Benchmark
+	public BigDecimal getStockPrice() throws NotEnoughDataPointsException {
+		return stockExchange.getStockPrice(Stock.TEA_C);
+	}
+}
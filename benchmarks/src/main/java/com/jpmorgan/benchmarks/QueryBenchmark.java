@@ -0,0 +1,55 @@
+package com.jpmorgan.benchmarks;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jpmorgan.StockExchange.NotEnoughDataPointsException;
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.model.Ticker.EPSNotAvailableException;
+import com.jpmorgan.model.Ticker.TickerPriceNotAvailableException;
+
+/**
+ * Average time of the queries of a stock exchange, against the history of trades of {@link ExchangeState}.
+ * @author bdinos
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class QueryBenchmark {
+	@State(Scope.Thread)
+	public static class Reader {
+		long next;
+	}
+
+	@Benchmark
+	public BigDecimal getStockPrice(ExchangeState state, Reader reader) throws NotEnoughDataPointsException {
+		return state.stockExchange.getStockPrice(state.stock(reader.next++));
+	}
+
+	@Benchmark
+	public BigDecimal getGBCEAllShareIndex(ExchangeState state) {
+		return state.stockExchange.getGBCEAllShareIndex();
+	}
+
+	@Benchmark
+	public BigDecimal getStockDividendYield(ExchangeState state, Reader reader) throws TickerNotFoundException, TickerPriceNotAvailableException {
+		return state.stockExchange.getStockDividendYield(state.stock(reader.next++));
+	}
+
+	@Benchmark
+	public BigDecimal getStockPriceEarningsRatio(ExchangeState state, Reader reader) throws TickerNotFoundException, EPSNotAvailableException {
+		return state.stockExchange.getStockPriceEarningsRatio(state.stock(reader.next++));
+	}
+}
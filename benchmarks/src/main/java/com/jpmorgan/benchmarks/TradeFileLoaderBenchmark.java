@@ -0,0 +1,104 @@
+package com.jpmorgan.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jpmorgan.StockExchange;
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.TradeFileLoader;
+import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.Ticker;
+import com.jpmorgan.model.Trade.TradeIndicator;
+import com.jpmorgan.model.TradeBatch;
+
+/**
+ * Time to load a day of trading, in time order as archived, from a CSV file and from a binary file into an empty
+ * exchange, see {@link TradeFileLoader}.
+ * @author bdinos
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TradeFileLoaderBenchmark {
+	@Param({ "1000000" })
+	public int trades;
+
+	@Param({ "5", "1000" })
+	public int stocks;
+
+	private Stock[] stockUniverse;
+	private Path csv;
+	private Path binary;
+	private StockExchange stockExchange;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException {
+		stockUniverse = new Stock[stocks];
+		for(int i = 0; i < stocks; i++) {
+			stockUniverse[i] = Stock.register("LOAD" + i, Stock.Type.COMMON);
+		}
+		csv = Files.createTempFile("trades", ".csv");
+		binary = Files.createTempFile("trades", ".bin");
+		Instant base = Instant.now().minus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.DAYS);
+		TradeBatch batch = new TradeBatch(2, trades);
+		try(BufferedWriter writer = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+			for(int i = 0; i < trades; i++) {
+				Instant timestamp = base.plusMillis(i / 10 * 50);
+				Stock stock = stockUniverse[i % stocks];
+				long priceTicks = 100 + i % 13 * 25;
+				batch.add(timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano(), stock, TradeIndicator.BUY, i % 9 + 1, priceTicks);
+				writer.append(timestamp.toString()).append(',').append(stock.symbol).append(",BUY,").append(Integer.toString(i % 9 + 1))
+					.append(',').append(BigDecimal.valueOf(priceTicks, 2).toPlainString()).append('\n');
+			}
+		}
+		TradeFileLoader.writeBinary(binary, batch);
+	}
+
+	@Setup(Level.Invocation)
+	public void emptyExchange() throws Exception {
+		stockExchange = new StockExchange();
+		for(Stock stock: stockUniverse) {
+			stockExchange.registerTicker(new Ticker(stock, BigDecimal.ONE, BigDecimal.valueOf(100)));
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(csv);
+		Files.deleteIfExists(binary);
+	}
+
+	@Benchmark
+	public long loadCsv() throws IOException, TickerNotFoundException {
+		return new TradeFileLoader().loadCsv(csv, 2, stockExchange);
+	}
+
+	@Benchmark
+	public long loadBinary() throws IOException, TickerNotFoundException {
+		return new TradeFileLoader().loadBinary(binary, stockExchange);
+	}
+}
@@ -0,0 +1,219 @@
+package com.jpmorgan;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Incrementally maintained GBCE All Share Index: the geometric mean of the prices of the stocks that currently
+ * have one, kept as the running sum of the logarithms of those prices. Recording a trade only marks its stock
+ * as dirty in O(1); reading the index re-prices the dirty stocks, and the stocks whose oldest trade in the window
+ * has left it since the latest result, so that a stock is only re-priced when its price may have changed. Each 
+ * stock is scheduled to expire at the time stamp of its oldest trade in the window, read from the 
+ * {@link TradeStore}: moving the window forward costs O(log n) per stock expiring, whatever the number of stocks.
+ * Reading the index with nothing changed is a lock-free, constant-time lookup of the latest result published.
+ * Stocks are priced as the stock price queries do, see {@link StockBook#accumulateAfter(Instant, TradeStore)}: 
+ * the window starts at the given instant, the trades of the second it starts in performed after it are read from
+ * the trades retained. The books are read under optimistic reads, so that reading the index never blocks the 
+ * threads recording trades, and only the readers re-pricing stocks wait for each other. A window starting before
+ * the one of the latest result is calculated on its own, from all the books, without touching the running sum.
+ * @author bdinos
+ */
+final class AllShareIndex {
+	private final Iterable<StockBook> books;
+	private final TradeStore trades;
+	private final ConcurrentLinkedQueue<StockBook> dirtyBooks = new ConcurrentLinkedQueue<>();
+	/** The stocks by the time stamp they expire at; an entry is stale if the stock has been rescheduled since. */
+	private final PriorityQueue<Expiry> expiries = new PriorityQueue<>(Expiry.BY_NANOS);
+	/** The running sum, over the window of the latest result; guarded by this index. */
+	private double logSum;
+	private int count;
+	/** The number of changes made to the running sum since it was last added up again; guarded by this index. */
+	private int changes;
+	/** The latest result, over the latest window calculated. */
+	private volatile Result result = new Result(Long.MIN_VALUE, new Partial(0, 0));
+
+	/**
+  	 * Constructor.
+  	 * @param books a live view of the books of all the stocks of the market
+  	 * @param trades the trades retained by the market
+  	 */
+	AllShareIndex(Iterable<StockBook> books, TradeStore trades) {
+		this.books = books;
+		this.trades = trades;
+	}
+
+	/**
+  	 * Mark a stock as dirty, after a trade has been added to its book.
+  	 * @param book the book of the stock
+  	 */
+	void markDirty(StockBook book) {
+		if(book.indexDirty.compareAndSet(false, true)) {
+			dirtyBooks.add(book);
+		}
+	}
+
+	/**
+  	 * Calculate the index over the trades performed after the given instant.
+  	 * @param before the instant the window starts at
+  	 * @return the index, or null if no stock has a price
+  	 */
+	BigDecimal getValue(Instant before) {
+		return getPartial(before).getValue();
+	}
+	
+	/**
+  	 * Calculate the sum of the logarithms of the prices over the trades performed after the given instant, so 
+  	 * that the partial results of several markets can be combined into a single index.
+  	 * @param before the instant the window starts at
+  	 * @return the partial result of the index
+  	 */
+	Partial getPartial(Instant before) {
+		long nanos = TradeStore.clampToEpochNanos(before);
+		Result result = this.result;
+		if(result.nanos == nanos && dirtyBooks.isEmpty()) {
+			return result.partial;
+		}
+		if(nanos < result.nanos) {
+			return calculate(before);
+		}
+		return update(before, nanos);
+	}
+	
+	/**
+  	 * Calculate the index over a window on its own, from all the books.
+  	 */
+	private Partial calculate(Instant before) {
+		double logSum = 0;
+		int count = 0;
+		for(StockBook book: books) {
+			double logPrice = logPriceOf(book, before);
+			if(!Double.isNaN(logPrice)) {
+				logSum += logPrice;
+				count++;
+			}
+		}
+		return new Partial(logSum, count);
+	}
+	
+	/**
+  	 * Re-price the dirty stocks and the stocks expired by the window moving forward, and publish the result.
+  	 */
+	private synchronized Partial update(Instant before, long nanos) {
+		if(nanos < this.result.nanos) {
+			return calculate(before); // another reader has moved the window forward in the meantime
+		}
+		for(StockBook book = dirtyBooks.poll(); book != null; book = dirtyBooks.poll()) {
+			book.indexDirty.set(false);
+			reprice(book, before, nanos);
+		}
+		for(Expiry expiry = expiries.peek(); expiry != null && expiry.nanos <= nanos; expiry = expiries.peek()) {
+			expiries.poll();
+			if(expiry.book.indexExpiry == expiry.nanos) {
+				reprice(expiry.book, before, nanos);
+			}
+		}
+		if(changes > Math.max(count, 64)) {
+			// add the prices up again from time to time, so that rounding errors do not build up in the running sum
+			logSum = 0;
+			for(StockBook book: books) {
+				if(!Double.isNaN(book.indexLogPrice)) {
+					logSum += book.indexLogPrice;
+				}
+			}
+			changes = 0;
+		}
+		Partial partial = new Partial(logSum, count);
+		this.result = new Result(nanos, partial);
+		return partial;
+	}
+	
+	/**
+  	 * Re-price a stock within the running sum, and schedule it to expire at its oldest trade in the window.
+  	 */
+	private void reprice(StockBook book, Instant before, long nanos) {
+		double logPrice = logPriceOf(book, before);
+		if(!Double.isNaN(book.indexLogPrice)) {
+			logSum -= book.indexLogPrice;
+			count--;
+		}
+		if(!Double.isNaN(logPrice)) {
+			logSum += logPrice;
+			count++;
+		}
+		book.indexLogPrice = logPrice;
+		changes++;
+		long expiry = trades.nextAfter(book.ticker.stock, nanos);
+		if(expiry != book.indexExpiry) {
+			book.indexExpiry = expiry;
+			if(expiry != Long.MAX_VALUE) {
+				expiries.add(new Expiry(expiry, book));
+			}
+		}
+	}
+	
+	private double logPriceOf(StockBook book, Instant before) {
+		BigDecimal price = book.accumulateAfter(before, trades).weightedAverage();
+		return price == null ? Double.NaN : Math.log(price.doubleValue());
+	}
+	
+	/**
+	 * Scheduled expiry of a stock from the window: the time stamp of its oldest trade in the window.
+	 */
+	private static final class Expiry {
+		static final Comparator<Expiry> BY_NANOS = Comparator.comparingLong(expiry -> expiry.nanos);
+		
+		final long nanos;
+		final StockBook book;
+		
+		Expiry(long nanos, StockBook book) {
+			this.nanos = nanos;
+			this.book = book;
+		}
+	}
+	
+	/**
+	 * Result of the index over the window starting at a given instant, in epoch nanoseconds.
+	 */
+	private static final class Result {
+		final long nanos;
+		final Partial partial;
+		
+		Result(long nanos, Partial partial) {
+			this.nanos = nanos;
+			this.partial = partial;
+		}
+	}
+	
+	/**
+	 * Partial result of the index: the sum of the logarithms of the prices of the stocks that have one, and the
+	 * number of those stocks.
+	 * @author bdinos
+	 */
+	static final class Partial {
+		final double logSum;
+		final int count;
+		
+		Partial(double logSum, int count) {
+			this.logSum = logSum;
+			this.count = count;
+		}
+		
+		/**
+	  	 * @param other another partial result, over a disjoint set of stocks
+	  	 * @return the partial result over the stocks of both
+	  	 */
+		Partial combine(Partial other) {
+			return new Partial(logSum + other.logSum, count + other.count);
+		}
+		
+		/**
+	  	 * @return the index, or null if no stock has a price
+	  	 */
+		BigDecimal getValue() {
+			return count == 0 ? null : BigDecimal.valueOf(Math.exp(logSum / count));
+		}
+	}
+}
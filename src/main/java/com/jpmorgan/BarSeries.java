@@ -0,0 +1,146 @@
+package com.jpmorgan;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import com.jpmorgan.model.Bar;
+import com.jpmorgan.model.Stock;
+
+/**
+ * Rolling series of the OHLCV bars of a single stock, for a given bar interval. The bars are held in columns of
+ * primitive values, one array per field, in a ring indexed by bar number like the buckets of a 
+ * {@link VwapWindow}: updating a bar on each trade costs O(1) and allocates nothing for exchanges using a 
+ * {@link FixedPoint} representation. The prices are held in ticks of that representation, or of 
+ * {@link #DEFAULT_FIXED_POINT} for exchanges having none. A bar is only held if a trade has been performed 
+ * within it. A trade older than the bars held is ignored; a trade of a bar already held but older than its
+ * latest trade updates its high, low, volume and weighted average, not its open nor its close.
+ * @author bdinos
+ */
+final class BarSeries {
+	/** The representation of the prices of the bars of exchanges having no fixed-point representation. */
+	static final FixedPoint DEFAULT_FIXED_POINT = new FixedPoint(8);
+
+	final Duration interval;
+	private final long seconds;
+	private final int capacity;
+	private final PrecisionPolicy precisionPolicy;
+	private final FixedPoint fixedPoint;
+	private final long[] bars;
+	private final long[] opens;
+	private final long[] highs;
+	private final long[] lows;
+	private final long[] closes;
+	private final long[] volumes;
+	private final BigDecimal[] amounts;
+	private final long[] notionals;
+	private long latestBar = Long.MIN_VALUE;
+
+	/**
+  	 * Constructor.
+  	 * @param interval the length of the bars, a whole number of seconds
+  	 * @param capacity the number of bar intervals held
+  	 * @param precisionPolicy the precision policy of the market
+  	 */
+	BarSeries(Duration interval, int capacity, PrecisionPolicy precisionPolicy) {
+		this.interval = interval;
+		this.seconds = interval.getSeconds();
+		this.capacity = capacity;
+		this.precisionPolicy = precisionPolicy;
+		this.fixedPoint = precisionPolicy.fixedPoint == null ? DEFAULT_FIXED_POINT : precisionPolicy.fixedPoint;
+		bars = new long[capacity];
+		opens = new long[capacity];
+		highs = new long[capacity];
+		lows = new long[capacity];
+		closes = new long[capacity];
+		volumes = new long[capacity];
+		amounts = precisionPolicy.fixedPoint == null ? new BigDecimal[capacity] : null;
+		notionals = precisionPolicy.fixedPoint == null ? null : new long[capacity];
+	}
+
+	/**
+  	 * Add a trade to the bar it has been performed in.
+  	 * @param second the epoch second the trade was performed in
+  	 * @param quantity the number of shares exchanged
+  	 * @param priceTicks the unscaled price of the trade
+  	 * @param priceScale the scale of the price
+  	 * @param amount the price x quantity product of the trade
+  	 */
+	void add(long second, int quantity, long priceTicks, int priceScale, BigDecimal amount) {
+		int slot = update(second, quantity, priceTicks, priceScale);
+		if(slot >= 0) {
+			// the volume of a bar just started is the quantity of its first trade
+			amounts[slot] = volumes[slot] == quantity ? amount : amounts[slot].add(amount);
+		}
+	}
+
+	/**
+  	 * Add a trade to the bar it has been performed in.
+  	 * @param second the epoch second the trade was performed in
+  	 * @param quantity the number of shares exchanged
+  	 * @param priceTicks the unscaled price of the trade
+  	 * @param priceScale the scale of the price
+  	 * @param notional the price x quantity product of the trade, in ticks
+  	 */
+	void add(long second, int quantity, long priceTicks, int priceScale, long notional) {
+		int slot = update(second, quantity, priceTicks, priceScale);
+		if(slot >= 0) {
+			// the volume of a bar just started is the quantity of its first trade
+			notionals[slot] = volumes[slot] == quantity ? notional : Math.addExact(notionals[slot], notional);
+		}
+	}
+
+	/**
+  	 * Update the prices and the volume of the bar of a trade, starting the bar if needed.
+  	 * @return the slot of the bar, or -1 if it is older than the bars held
+  	 */
+	private int update(long second, int quantity, long priceTicks, int priceScale) {
+		long bar = Math.floorDiv(second, seconds);
+		boolean latest = bar >= latestBar;
+		if(bar > latestBar) {
+			latestBar = bar;
+		} else if(bar <= latestBar - capacity) {
+			return -1;
+		}
+		long price = fixedPoint.toTicks(priceTicks, priceScale);
+		int slot = (int) Math.floorMod(bar, (long) capacity);
+		if(bars[slot] != bar || volumes[slot] == 0) {
+			bars[slot] = bar;
+			opens[slot] = highs[slot] = lows[slot] = closes[slot] = price;
+			volumes[slot] = quantity;
+			return slot;
+		}
+		highs[slot] = Math.max(highs[slot], price);
+		lows[slot] = Math.min(lows[slot], price);
+		if(latest) {
+			closes[slot] = price;
+		}
+		volumes[slot] += quantity;
+		return slot;
+	}
+
+	/**
+  	 * Add the finished bars held, oldest first, to a list.
+  	 * @param stock the stock of the bars
+  	 * @param timestamp the instant the bars must have ended by
+  	 * @param bars the list the bars are added to
+  	 */
+	void readFinished(Stock stock, Instant timestamp, List<Bar> bars) {
+		long latestBar = this.latestBar;
+		long end = Math.min(latestBar, Math.floorDiv(timestamp.getEpochSecond(), seconds) - 1);
+		for(long bar = latestBar - capacity + 1; bar <= end; bar++) {
+			int slot = (int) Math.floorMod(bar, (long) capacity);
+			if(this.bars[slot] == bar && volumes[slot] != 0) {
+				BigDecimal total = notionals == null ? amounts[slot] : fixedPoint.toBigDecimal(notionals[slot]);
+				if(total == null) { // may be seen as null by an optimistic read racing a writer
+					continue;
+				}
+				bars.add(new Bar(stock, Instant.ofEpochSecond(bar * seconds), interval,
+						fixedPoint.toBigDecimal(opens[slot]), fixedPoint.toBigDecimal(highs[slot]),
+						fixedPoint.toBigDecimal(lows[slot]), fixedPoint.toBigDecimal(closes[slot]), volumes[slot],
+						total.divide(BigDecimal.valueOf(volumes[slot]), precisionPolicy.resultContext)));
+			}
+		}
+	}
+}
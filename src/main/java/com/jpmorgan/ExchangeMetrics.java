@@ -0,0 +1,169 @@
+package com.jpmorgan;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+
+/**
+ * Metrics of a {@link StockExchange}: counters of the trades recorded, rejected, late and evicted and of the
+ * failures of the listeners, and histograms of the latency of the price and index queries and of the ingestion 
+ * lag. The counters are striped, so that threads recording trades concurrently do not contend on them. A market has no metrics unless they are set, see
+ * {@link StockExchange#setMetrics(ExchangeMetrics)}, in which case its hot paths do not even read the clock.
+ * @author bdinos
+ */
+public final class ExchangeMetrics implements ExchangeMetricsMXBean {
+	private final LongAdder tradesRecorded = new LongAdder();
+	private final LongAdder tradesRejected = new LongAdder();
+	private final LongAdder tradesEvicted = new LongAdder();
+	private final LongAdder tradesLate = new LongAdder();
+	private final LongAdder listenerFailures = new LongAdder();
+	private final LongAdder stockPriceQueries = new LongAdder();
+	private final LongAdder indexQueries = new LongAdder();
+	private final LatencyHistogram stockPriceLatency = new LatencyHistogram();
+	private final LatencyHistogram indexLatency = new LatencyHistogram();
+	private final LatencyHistogram ingestionLag = new LatencyHistogram();
+
+	/**
+  	 * Register the metrics to the platform MBean server, under the name
+  	 * <code>com.jpmorgan:type=StockExchange,name=&lt;name&gt;</code>.
+  	 * @param name the name of the market
+  	 * @return the name the metrics have been registered under
+  	 * @throws JMException if the metrics could not be registered
+  	 */
+	public ObjectName register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("com.jpmorgan:type=StockExchange,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+
+	void tradesRecorded(int count) {
+		tradesRecorded.add(count);
+	}
+	
+	void tradeIngested(long epochMillis, long nowMillis) {
+		ingestionLag.record(nowMillis - epochMillis);
+	}
+
+	void tradesRejected(int count) {
+		tradesRejected.add(count);
+	}
+
+	void tradesLate(int count) {
+		tradesLate.add(count);
+	}
+	
+	void tradesEvicted(int count) {
+		tradesEvicted.add(count);
+	}
+
+	void listenerFailed() {
+		listenerFailures.increment();
+	}
+
+	void stockPriceQueried(long startNanos) {
+		stockPriceQueries.increment();
+		stockPriceLatency.record(System.nanoTime() - startNanos);
+	}
+
+	void indexQueried(long startNanos) {
+		indexQueries.increment();
+		indexLatency.record(System.nanoTime() - startNanos);
+	}
+
+	public LatencyHistogram getStockPriceLatency() {
+		return stockPriceLatency;
+	}
+
+	public LatencyHistogram getIndexLatency() {
+		return indexLatency;
+	}
+
+	public LatencyHistogram getIngestionLag() {
+		return ingestionLag;
+	}
+
+	@Override
+	public long getTradesRecorded() {
+		return tradesRecorded.sum();
+	}
+
+	@Override
+	public long getTradesRejected() {
+		return tradesRejected.sum();
+	}
+
+	@Override
+	public long getTradesLate() {
+		return tradesLate.sum();
+	}
+	
+	@Override
+	public long getTradesEvicted() {
+		return tradesEvicted.sum();
+	}
+
+	@Override
+	public long getListenerFailures() {
+		return listenerFailures.sum();
+	}
+
+	@Override
+	public long getTradesRetained() {
+		return tradesRecorded.sum() - tradesEvicted.sum();
+	}
+
+	@Override
+	public long getStockPriceQueries() {
+		return stockPriceQueries.sum();
+	}
+
+	@Override
+	public long getStockPriceLatencyP50() {
+		return stockPriceLatency.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getStockPriceLatencyP99() {
+		return stockPriceLatency.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getStockPriceLatencyP999() {
+		return stockPriceLatency.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public long getIndexQueries() {
+		return indexQueries.sum();
+	}
+
+	@Override
+	public long getIndexLatencyP50() {
+		return indexLatency.getValueAtPercentile(50);
+	}
+
+	@Override
+	public long getIndexLatencyP99() {
+		return indexLatency.getValueAtPercentile(99);
+	}
+
+	@Override
+	public long getIndexLatencyP999() {
+		return indexLatency.getValueAtPercentile(99.9);
+	}
+
+	@Override
+	public long getIngestionLagP99() {
+		return ingestionLag.getValueAtPercentile(99);
+	}
+
+	@Override
+	public void resetHistograms() {
+		stockPriceLatency.reset();
+		indexLatency.reset();
+		ingestionLag.reset();
+	}
+}
@@ -0,0 +1,56 @@
+package com.jpmorgan;
+
+/**
+ * Management interface of the {@link ExchangeMetrics} of a market, exposed via JMX. Latencies are reported in
+ * nanoseconds, ingestion lags in milliseconds.
+ * @author bdinos
+ */
+public interface ExchangeMetricsMXBean {
+	long getTradesRecorded();
+
+	long getTradesRejected();
+
+	/**
+  	 * @return the number of trades rejected or dropped for being older than the watermark
+  	 */
+	long getTradesLate();
+
+	long getTradesEvicted();
+
+	/**
+  	 * @return the number of exceptions thrown by the listeners subscribed to the market
+  	 */
+	long getListenerFailures();
+
+	/**
+  	 * @return the number of trades currently retained by the market
+  	 */
+	long getTradesRetained();
+
+	long getStockPriceQueries();
+
+	long getStockPriceLatencyP50();
+
+	long getStockPriceLatencyP99();
+
+	long getStockPriceLatencyP999();
+
+	long getIndexQueries();
+
+	long getIndexLatencyP50();
+
+	long getIndexLatencyP99();
+
+	long getIndexLatencyP999();
+
+	/**
+  	 * @return the 99th percentile of the delay between the time stamp of a trade and its recording
+  	 */
+	long getIngestionLagP99();
+
+	/**
+  	 * Reset the latency and lag histograms, so that the percentiles cover the values recorded from now on.
+  	 * The counters are never reset.
+  	 */
+	void resetHistograms();
+}
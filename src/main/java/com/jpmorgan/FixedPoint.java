@@ -0,0 +1,83 @@
+package com.jpmorgan;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Fixed-point representation of prices as a long number of ticks, a tick being worth 10<sup>-scale</sup>.
+ * A {@link StockExchange} created with a fixed-point representation accumulates the price x quantity products
+ * of its trades as exact long values, and produces <code>BigDecimal</code> values only when queried.
+ * @author bdinos
+ */
+public final class FixedPoint {
+	public static final int MAX_SCALE = 18;
+	private static final long[] POWERS_OF_TEN = new long[MAX_SCALE + 1];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for(int i = 1; i <= MAX_SCALE; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+	public final int scale;
+
+	/**
+  	 * Constructor.
+  	 * @param scale the number of decimal digits of a tick, between 0 and {@link #MAX_SCALE}
+  	 */
+	public FixedPoint(int scale) {
+		Validate.isTrue(scale >= 0 && scale <= MAX_SCALE);
+		this.scale = scale;
+	}
+
+	/**
+  	 * Convert an unscaled value to ticks, rounding half up if it has more decimal digits than a tick.
+  	 * No object is allocated.
+  	 * @param unscaled the unscaled value
+  	 * @param unscaledScale the scale of the unscaled value
+  	 * @return the value in ticks
+  	 * @throws ArithmeticException if the value overflows a long number of ticks
+  	 */
+	public long toTicks(long unscaled, int unscaledScale) {
+		long diff = (long) scale - unscaledScale;
+		if(diff >= 0) {
+			if(diff > MAX_SCALE) {
+				if(unscaled == 0) {
+					return 0;
+				}
+				throw new ArithmeticException("Tick overflow");
+			}
+			return Math.multiplyExact(unscaled, POWERS_OF_TEN[(int) diff]);
+		}
+		if(-diff > MAX_SCALE) {
+			return 0;
+		}
+		long divisor = POWERS_OF_TEN[(int) -diff];
+		long ticks = unscaled / divisor;
+		long remainder = Math.abs(unscaled % divisor);
+		if(remainder >= divisor - remainder) {
+			ticks += Long.signum(unscaled);
+		}
+		return ticks;
+	}
+
+	/**
+  	 * Convert a value to ticks, rounding half up if it has more decimal digits than a tick.
+  	 * @param value the value
+  	 * @return the value in ticks
+  	 * @throws ArithmeticException if the value overflows a long number of ticks
+  	 */
+	public long toTicks(BigDecimal value) {
+		return value.setScale(scale, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+	}
+
+	/**
+  	 * @param ticks a value in ticks
+  	 * @return the value as a <code>BigDecimal</code>
+  	 */
+	public BigDecimal toBigDecimal(long ticks) {
+		return BigDecimal.valueOf(ticks, scale);
+	}
+}
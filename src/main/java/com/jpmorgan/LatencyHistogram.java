@@ -0,0 +1,85 @@
+package com.jpmorgan;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of non-negative long values, such as latencies in nanoseconds, with a bounded relative error. Values
+ * are counted in log-linear buckets: every power of two range is split into 32 buckets of equal width, so that a
+ * value is reported with an error below 1/32 of it, whatever its magnitude. Recording a value is a lock-free
+ * increment of one bucket, the buckets of the whole long range taking a fixed 15 KB.
+ * @author bdinos
+ */
+public final class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+	private final AtomicLongArray counts = new AtomicLongArray((64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT);
+
+	/**
+  	 * Count a value.
+  	 * @param value the value, negative values being counted as zero
+  	 */
+	public void record(long value) {
+		counts.incrementAndGet(indexOf(Math.max(value, 0)));
+	}
+
+	/**
+  	 * @return the number of values counted
+  	 */
+	public long getCount() {
+		long count = 0;
+		for(int i = 0; i < counts.length(); i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+  	 * Find the value below which the given percentage of the values counted fall.
+  	 * @param percentile the percentage, from 0 to 100
+  	 * @return the highest value of the bucket the percentile falls in, or 0 if no value has been counted
+  	 */
+	public long getValueAtPercentile(double percentile) {
+		long[] counts = new long[this.counts.length()];
+		long total = 0;
+		for(int i = 0; i < counts.length; i++) {
+			counts[i] = this.counts.get(i);
+			total += counts[i];
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * total));
+		long count = 0;
+		for(int i = 0; i < counts.length; i++) {
+			count += counts[i];
+			if(count >= rank) {
+				return highestValueOf(i);
+			}
+		}
+		return 0;
+	}
+
+	/**
+  	 * Forget all the values counted. Values counted concurrently may or may not be forgotten.
+  	 */
+	public void reset() {
+		for(int i = 0; i < counts.length(); i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	private static int indexOf(long value) {
+		if(value < SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+	}
+
+	private static long highestValueOf(int index) {
+		if(index < SUB_BUCKET_COUNT) {
+			return index;
+		}
+		int shift = index / SUB_BUCKET_COUNT - 1;
+		long subBucket = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+		return ((subBucket + 1) << shift) - 1; // wraps around to Long.MAX_VALUE for the last bucket
+	}
+}
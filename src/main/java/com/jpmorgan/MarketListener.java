@@ -0,0 +1,26 @@
+package com.jpmorgan;
+
+import java.math.BigDecimal;
+
+import com.jpmorgan.model.StockUpdate;
+
+/**
+ * Listener of the updates of a {@link StockExchange}, see {@link StockExchange#subscribe(MarketListener, java.util.concurrent.Executor)}. 
+ * Updates are coalesced: a listener slower than the trades gets the latest values of each stock, not every 
+ * intermediate one.
+ * @author bdinos
+ */
+public interface MarketListener {
+	/**
+  	 * Called after trades of a stock have been recorded.
+  	 * @param update the latest values of the stock
+  	 */
+	void onStockUpdate(StockUpdate update);
+
+	/**
+  	 * Called after trades have been recorded, once at least one stock has a price.
+  	 * @param index the latest GBCE All Share Index
+  	 */
+	default void onIndexUpdate(BigDecimal index) {
+	}
+}
@@ -0,0 +1,61 @@
+package com.jpmorgan;
+
+import java.math.MathContext;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Policy defining the precision and the rounding of the calculations of a {@link StockExchange} and of its
+ * tickers. The product context is applied to every price x quantity product accumulated into a stock price,
+ * while the result context is applied to the prices and ratios returned.
+ * @author bdinos
+ */
+public final class PrecisionPolicy {
+	/** The historical policy, rounding every product and every result to 2 significant digits, half up. */
+	public static final PrecisionPolicy DEFAULT = new PrecisionPolicy(StockExchange.MATH_CTX, StockExchange.MATH_CTX, null);
+
+	public final MathContext productContext;
+	public final MathContext resultContext;
+	/** The fixed-point representation prices are accumulated in, or null to accumulate BigDecimal values. */
+	public final FixedPoint fixedPoint;
+
+	/**
+  	 * Constructor.
+  	 * @param productContext the context applied to every price x quantity product
+  	 * @param resultContext the context applied to the results, it must have a bounded precision
+  	 */
+	public PrecisionPolicy(MathContext productContext, MathContext resultContext) {
+		this(productContext, resultContext, null);
+	}
+
+	private PrecisionPolicy(MathContext productContext, MathContext resultContext, FixedPoint fixedPoint) {
+		Validate.notNull(productContext);
+		this.productContext = productContext;
+		Validate.notNull(resultContext);
+		Validate.isTrue(resultContext.getPrecision() > 0, "Results are quotients, they need a bounded precision");
+		this.resultContext = resultContext;
+		this.fixedPoint = fixedPoint;
+	}
+
+	/**
+  	 * Create a policy accumulating the products exactly and rounding only the results.
+  	 * @param resultContext the context applied to the results
+  	 * @return the policy
+  	 */
+	public static PrecisionPolicy exact(MathContext resultContext) {
+		return new PrecisionPolicy(MathContext.UNLIMITED, resultContext, null);
+	}
+
+	/**
+  	 * Create a policy accumulating the products exactly as long values in the given fixed-point representation,
+  	 * and rounding only the results. For trade prices having no more decimal digits than the fixed-point scale,
+  	 * the results are the same as those of {@link #exact(MathContext)}.
+  	 * @param fixedPoint the fixed-point representation of prices
+  	 * @param resultContext the context applied to the results
+  	 * @return the policy
+  	 */
+	public static PrecisionPolicy fixedPoint(FixedPoint fixedPoint, MathContext resultContext) {
+		Validate.notNull(fixedPoint);
+		return new PrecisionPolicy(MathContext.UNLIMITED, resultContext, fixedPoint);
+	}
+}
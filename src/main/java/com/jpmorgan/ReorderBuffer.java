@@ -0,0 +1,112 @@
+package com.jpmorgan;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.jpmorgan.model.Trade;
+
+/**
+ * Reorder buffer of the event-time ingestion of a {@link StockExchange}, see {@link WatermarkPolicy}. The trades
+ * are ordered by time stamp, then by arrival, so that trades performed at the same instant are released in the 
+ * order they have arrived. The watermark only moves forward. Callers synchronize on the buffer.
+ * @author bdinos
+ */
+final class ReorderBuffer {
+	private static final Comparator<Entry> BY_TIMESTAMP = Comparator.<Entry, Instant> comparing(entry -> entry.trade.timestamp)
+			.thenComparingLong(entry -> entry.sequence);
+
+	final WatermarkPolicy policy;
+	private final PriorityQueue<Entry> trades = new PriorityQueue<>(BY_TIMESTAMP);
+	private long sequence;
+	private Instant watermark;
+	private boolean closed;
+
+	/**
+  	 * Constructor.
+  	 * @param policy the watermark policy
+  	 */
+	ReorderBuffer(WatermarkPolicy policy) {
+		this.policy = policy;
+	}
+
+	/**
+  	 * @return the watermark, or null if no trade has arrived yet
+  	 */
+	Instant getWatermark() {
+		return watermark;
+	}
+
+	/**
+  	 * @param trade a trade
+  	 * @return true if the trade is older than the watermark
+  	 */
+	boolean isLate(Trade trade) {
+		return !closed && watermark != null && trade.timestamp.isBefore(watermark);
+	}
+
+	/**
+  	 * Add a trade which is not late, moving the watermark forward if it is the latest trade.
+  	 * @param trade the trade
+  	 */
+	void add(Trade trade) {
+		trades.add(new Entry(trade, sequence++));
+		Instant watermark = trade.timestamp.minus(policy.allowedLateness);
+		if(this.watermark == null || watermark.isAfter(this.watermark)) {
+			this.watermark = watermark;
+		}
+	}
+
+	/**
+  	 * Remove the trades the watermark has passed, or all the trades once the buffer is closed.
+  	 * @return the trades removed, in time order
+  	 */
+	Trade[] release() {
+		List<Trade> released = new ArrayList<>();
+		while(!trades.isEmpty() && (closed || !trades.peek().trade.timestamp.isAfter(watermark))) {
+			released.add(trades.poll().trade);
+		}
+		return released.toArray(new Trade[released.size()]);
+	}
+
+	/**
+  	 * Remove all the trades, moving the watermark forward to the latest one, so that no trade older than those
+  	 * removed is accepted afterwards.
+  	 * @return the trades removed, in time order
+  	 */
+	Trade[] releaseAll() {
+		Trade[] released = new Trade[trades.size()];
+		for(int i = 0; i < released.length; i++) {
+			released[i] = trades.poll().trade;
+		}
+		if(released.length > 0 && released[released.length - 1].timestamp.isAfter(watermark)) {
+			watermark = released[released.length - 1].timestamp;
+		}
+		return released;
+	}
+
+	/**
+  	 * Close the buffer, which holds no trade from then on: trades are neither late nor held any more.
+  	 * @return the trades removed, in time order
+  	 */
+	Trade[] close() {
+		closed = true;
+		return releaseAll();
+	}
+
+	int size() {
+		return trades.size();
+	}
+
+	private static final class Entry {
+		final Trade trade;
+		final long sequence;
+
+		Entry(Trade trade, long sequence) {
+			this.trade = trade;
+			this.sequence = sequence;
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package com.jpmorgan;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang.Validate;
+
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.model.MarketSnapshot;
+import com.jpmorgan.model.Trade;
+
+/**
+ * Engine replaying a recorded stream of trades through a {@link StockExchange} at event time. While replaying,
+ * the market reads the time from a {@link SimulatedClock} which follows the time stamps of the trades, and a
+ * {@link MarketSnapshot} is emitted at every multiple of the output interval, holding the prices and the index as
+ * they were at that instant. The stream is replayed as fast as possible, or paced at a multiple of real time.
+ * The outputs only depend on the stream, so that a backtest gives the same results whatever the pace.
+ * @author bdinos
+ */
+public final class ReplayEngine {
+	/** The number of trades recorded at once when the stream is replayed as fast as possible. */
+	private static final int BATCH_SIZE = 4096;
+
+	private final StockExchange stockExchange;
+	private final Duration outputInterval;
+	private final Consumer<MarketSnapshot> output;
+	private double speed = Double.POSITIVE_INFINITY;
+
+	/**
+  	 * Constructor of an engine replaying as fast as possible.
+  	 * @param stockExchange the market the trades are recorded to
+  	 * @param outputInterval the event time between two snapshots, a whole number of milliseconds
+  	 * @param output the consumer of the snapshots, called by the replaying thread
+  	 */
+	public ReplayEngine(StockExchange stockExchange, Duration outputInterval, Consumer<MarketSnapshot> output) {
+		Validate.notNull(stockExchange);
+		Validate.isTrue(outputInterval.toMillis() > 0 && outputInterval.equals(Duration.ofMillis(outputInterval.toMillis())));
+		Validate.notNull(output);
+		this.stockExchange = stockExchange;
+		this.outputInterval = outputInterval;
+		this.output = output;
+	}
+
+	/**
+  	 * Set the pace of the replay.
+  	 * @param speed the multiple of real time the stream is replayed at, or <code>Double.POSITIVE_INFINITY</code>
+  	 * to replay as fast as possible
+  	 */
+	public void setSpeed(double speed) {
+		Validate.isTrue(speed > 0);
+		this.speed = speed;
+	}
+
+	public double getSpeed() {
+		return speed;
+	}
+
+	/**
+  	 * Replay a stream of trades, ordered by time stamp. The clock of the market is restored afterwards. The last
+  	 * snapshot is emitted at the first multiple of the output interval at or after the latest trade.
+  	 * @param trades the trades
+  	 * @return the number of trades recorded
+  	 * @throws TickerNotFoundException if the stock of a trade has not a ticker associated, in which case the replay
+  	 * stops
+  	 * @throws InterruptedException if the thread is interrupted while pacing the replay
+  	 */
+	public long replay(Iterable<Trade> trades) throws TickerNotFoundException, InterruptedException {
+		Clock previous = stockExchange.getClock();
+		SimulatedClock clock = null;
+		Instant nextOutput = null;
+		Instant first = null;
+		long start = 0;
+		List<Trade> batch = new ArrayList<>();
+		long count = 0;
+		try {
+			for(Trade trade: trades) {
+				if(clock == null) {
+					clock = new SimulatedClock(trade.timestamp);
+					stockExchange.setClock(clock);
+					nextOutput = ceil(trade.timestamp);
+					first = trade.timestamp;
+					start = System.nanoTime();
+				}
+				if(trade.timestamp.isAfter(nextOutput) || batch.size() == BATCH_SIZE || speed != Double.POSITIVE_INFINITY) {
+					count += record(batch, clock);
+				}
+				for(; trade.timestamp.isAfter(nextOutput); nextOutput = nextOutput.plus(outputInterval)) {
+					clock.setInstant(nextOutput);
+					output.accept(stockExchange.snapshot());
+				}
+				if(speed != Double.POSITIVE_INFINITY) {
+					long due = start + (long) (Duration.between(first, trade.timestamp).toNanos() / speed);
+					TimeUnit.NANOSECONDS.sleep(due - System.nanoTime());
+				}
+				batch.add(trade);
+			}
+			if(clock != null) {
+				count += record(batch, clock);
+				clock.setInstant(nextOutput);
+				output.accept(stockExchange.snapshot());
+			}
+			return count;
+		} finally {
+			stockExchange.setClock(previous);
+		}
+	}
+
+	/**
+  	 * Record the trades of the batch, the clock being set to the latest of them, and empty the batch.
+  	 */
+	private int record(List<Trade> batch, SimulatedClock clock) throws TickerNotFoundException {
+		if(batch.isEmpty()) {
+			return 0;
+		}
+		Instant latest = batch.get(0).timestamp;
+		for(Trade trade: batch) {
+			if(trade.timestamp.isAfter(latest)) {
+				latest = trade.timestamp;
+			}
+		}
+		if(latest.isAfter(clock.instant())) {
+			clock.setInstant(latest);
+		}
+		int size = batch.size();
+		if(size == 1) {
+			stockExchange.recordTrade(batch.get(0));
+		} else {
+			stockExchange.recordTrades(batch);
+		}
+		batch.clear();
+		return size;
+	}
+
+	/**
+  	 * @return the first multiple of the output interval at or after the given instant
+  	 */
+	private Instant ceil(Instant timestamp) {
+		long interval = outputInterval.toMillis();
+		long millis = timestamp.toEpochMilli();
+		if(Instant.ofEpochMilli(millis).isBefore(timestamp)) {
+			millis++;
+		}
+		return Instant.ofEpochMilli(Math.floorDiv(millis + interval - 1, interval) * interval);
+	}
+}
@@ -0,0 +1,56 @@
+package com.jpmorgan;
+
+import java.time.Duration;
+
+import org.apache.commons.lang.Validate;
+
+import com.jpmorgan.archive.TradeArchive;
+
+/**
+ * Policy bounding the trades retained by a {@link StockExchange}. Trades older than the horizon, measured from
+ * the latest recorded trade, are evicted in batches while trades are recorded and handed over to the archive,
+ * if any.
+ * @author bdinos
+ */
+public final class RetentionPolicy {
+	/** The shortest horizon allowed, the window the stock prices are calculated on. */
+	public static final Duration MIN_HORIZON = Duration.ofMinutes(15);
+	public static final Duration DEFAULT_BATCH_PERIOD = Duration.ofMinutes(1);
+
+	public final Duration horizon;
+	public final Duration batchPeriod;
+	public final TradeArchive archive;
+
+	/**
+  	 * Constructor.
+  	 * @param horizon how long trades are retained for
+  	 */
+	public RetentionPolicy(Duration horizon) {
+		this(horizon, DEFAULT_BATCH_PERIOD, null);
+	}
+
+	/**
+  	 * Constructor.
+  	 * @param horizon how long trades are retained for
+  	 * @param archive the sink the evicted trades are handed over to
+  	 */
+	public RetentionPolicy(Duration horizon, TradeArchive archive) {
+		this(horizon, DEFAULT_BATCH_PERIOD, archive);
+	}
+
+	/**
+  	 * Constructor.
+  	 * @param horizon how long trades are retained for
+  	 * @param batchPeriod how far past the horizon the oldest trade may get before a batch is evicted
+  	 * @param archive the sink the evicted trades are handed over to, or null to discard them
+  	 */
+	public RetentionPolicy(Duration horizon, Duration batchPeriod, TradeArchive archive) {
+		Validate.notNull(horizon);
+		Validate.isTrue(horizon.compareTo(MIN_HORIZON) >= 0);
+		this.horizon = horizon;
+		Validate.notNull(batchPeriod);
+		Validate.isTrue(!batchPeriod.isNegative());
+		this.batchPeriod = batchPeriod;
+		this.archive = archive;
+	}
+}
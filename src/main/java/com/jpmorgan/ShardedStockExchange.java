@@ -0,0 +1,294 @@
+package com.jpmorgan;
+
+import java.io.Closeable;
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang.Validate;
+
+import com.jpmorgan.StockExchange.DuplicateTickerException;
+import com.jpmorgan.StockExchange.NotEnoughDataPointsException;
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.model.OptionalDecimal;
+import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.Ticker;
+import com.jpmorgan.model.Trade;
+import com.jpmorgan.model.TradeBatch;
+import com.jpmorgan.model.Ticker.EPSNotAvailableException;
+import com.jpmorgan.model.Ticker.TickerPriceNotAvailableException;
+
+/**
+ * Market partitioned by stock into independent {@link StockExchange} shards, the stock of id <code>i</code>
+ * belonging to the shard <code>i mod n</code>. Every shard has a thread of its own: the trades of a batch are
+ * recorded by the shards in parallel, and the GBCE All Share Index is calculated by combining the partial
+ * results of all the shards, computed in parallel as well. Since the shards share no state, single trades
+ * recorded concurrently to stocks of different shards never contend either.
+ * Anything not exposed here, such as bars or subscriptions, can be reached through {@link #getShard(Stock)}.
+ * @author bdinos
+ */
+public final class ShardedStockExchange implements Closeable {
+	private final StockExchange[] shards;
+
+	private final ExecutorService[] executors;
+
+	/**
+  	 * Constructor of a market using the {@link PrecisionPolicy#DEFAULT} precision policy.
+  	 * @param shardCount the number of shards
+  	 */
+	public ShardedStockExchange(int shardCount) {
+		this(shardCount, PrecisionPolicy.DEFAULT);
+	}
+
+	/**
+  	 * Constructor of a market using the given precision policy in every shard.
+  	 * @param shardCount the number of shards
+  	 * @param precisionPolicy the precision policy of the calculations of the shards and of their tickers
+  	 */
+	public ShardedStockExchange(int shardCount, PrecisionPolicy precisionPolicy) {
+		Validate.isTrue(shardCount > 0);
+		Validate.notNull(precisionPolicy);
+		shards = new StockExchange[shardCount];
+		executors = new ExecutorService[shardCount];
+		for(int i = 0; i < shardCount; i++) {
+			String name = "shard-" + i;
+			shards[i] = new StockExchange(precisionPolicy);
+			executors[i] = Executors.newSingleThreadExecutor(runnable -> {
+				Thread thread = new Thread(runnable, name);
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+	}
+
+	/**
+  	 * Set the clock of every shard, see {@link StockExchange#setClock(Clock)}.
+  	 * @param clock the clock
+  	 */
+	public void setClock(Clock clock) {
+		for(StockExchange shard: shards) {
+			shard.setClock(clock);
+		}
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	/**
+  	 * @param stock
+  	 * @return the shard the given stock belongs to
+  	 */
+	public StockExchange getShard(Stock stock) {
+		return shards[shardOf(stock)];
+	}
+
+	private int shardOf(Stock stock) {
+		return stock.id % shards.length;
+	}
+
+	/**
+  	 * Register a stock into the shard it belongs to, see {@link StockExchange#registerTicker(Ticker)}.
+  	 * @param ticker the stock's ticker
+  	 * @throws DuplicateTickerException if a ticker for the given stock has been already registered
+  	 */
+	public void registerTicker(Ticker ticker) throws DuplicateTickerException {
+		getShard(ticker.stock).registerTicker(ticker);
+	}
+
+	/**
+  	 * Record a trade to the shard of its stock, on the calling thread, see
+  	 * {@link StockExchange#recordTrade(Trade)}.
+  	 * @param trade the trade to be recorded
+  	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 */
+	public void recordTrade(Trade trade) throws TickerNotFoundException {
+		getShard(trade.stock).recordTrade(trade);
+	}
+
+	/**
+  	 * Record a batch of trades, each shard recording the trades of its stocks in parallel, see
+  	 * {@link StockExchange#recordTrades(Collection)}. The batch is validated first: if any trade has no ticker
+  	 * associated, or a price x quantity product overflowing the fixed-point representation of the market, no 
+  	 * trade of the batch is recorded. Beyond that, the shards record their trades independently: a shard failing
+  	 * to record its own, for instance because its watermark policy rejects a late trade, does not take back the
+  	 * trades recorded by the others. The method returns once every shard has recorded its trades.
+  	 * @param trades the trades to be recorded
+  	 * @throws TickerNotFoundException if the stock of a trade has not a ticker associated
+  	 * @throws ArithmeticException if the price x quantity product of a trade overflows the fixed-point 
+  	 * representation of the market
+  	 */
+	public void recordTrades(Collection<Trade> trades) throws TickerNotFoundException {
+		List<List<Trade>> partitions = new ArrayList<>(shards.length);
+		for(int i = 0; i < shards.length; i++) {
+			partitions.add(new ArrayList<>());
+		}
+		for(Trade trade: trades) {
+			int shard = shardOf(trade.stock);
+			shards[shard].validate(trade, trades.size());
+			partitions.get(shard).add(trade);
+		}
+		List<Future<?>> futures = new ArrayList<>(shards.length);
+		for(int i = 0; i < shards.length; i++) {
+			StockExchange shard = shards[i];
+			List<Trade> partition = partitions.get(i);
+			if(!partition.isEmpty()) {
+				futures.add(executors[i].submit((Callable<Void>) () -> {
+					shard.recordTrades(partition);
+					return null;
+				}));
+			}
+		}
+		for(Future<?> future: futures) {
+			await(future);
+		}
+	}
+
+	/**
+  	 * Record a columnar batch of trades, see {@link #recordTrades(Collection)}. The rows are copied to a 
+  	 * columnar batch per shard, no trade object is created, see {@link StockExchange#recordTrades(TradeBatch)}.
+  	 * @param batch the trades to be recorded
+  	 * @throws TickerNotFoundException if the stock of a trade has not a ticker associated
+  	 * @throws IllegalArgumentException if a row of the batch does not hold a valid trade
+  	 * @throws ArithmeticException if the price x quantity product of a trade overflows the fixed-point 
+  	 * representation of the market
+  	 */
+	public void recordTrades(TradeBatch batch) throws TickerNotFoundException {
+		TradeBatch[] partitions = new TradeBatch[shards.length];
+		for(int row = 0; row < batch.size(); row++) {
+			Stock stock = batch.getStock(row);
+			int shard = shardOf(stock);
+			shards[shard].validate(batch, row, batch.size());
+			if(partitions[shard] == null) {
+				partitions[shard] = new TradeBatch(batch.priceScale, Math.max(1, batch.size() / shards.length));
+			}
+			partitions[shard].add(batch.getEpochNanos(row), stock, batch.getTradeIndicator(row), 
+					batch.getSharesQuantity(row), batch.getPriceTicks(row));
+		}
+		List<Future<?>> futures = new ArrayList<>(shards.length);
+		for(int i = 0; i < shards.length; i++) {
+			StockExchange shard = shards[i];
+			TradeBatch partition = partitions[i];
+			if(partition != null) {
+				futures.add(executors[i].submit((Callable<Void>) () -> {
+					shard.recordTrades(partition);
+					return null;
+				}));
+			}
+		}
+		for(Future<?> future: futures) {
+			await(future);
+		}
+	}
+
+	public BigDecimal getStockPrice(Stock stock) throws NotEnoughDataPointsException {
+		return getShard(stock).getStockPrice(stock);
+	}
+
+	public OptionalDecimal findStockPrice(Stock stock) {
+		return getShard(stock).findStockPrice(stock);
+	}
+
+	public BigDecimal getStockDividendYield(Stock stock) throws TickerNotFoundException, TickerPriceNotAvailableException {
+		return getShard(stock).getStockDividendYield(stock);
+	}
+
+	public OptionalDecimal findStockDividendYield(Stock stock) throws TickerNotFoundException {
+		return getShard(stock).findStockDividendYield(stock);
+	}
+
+	public BigDecimal getStockPriceEarningsRatio(Stock stock) throws TickerNotFoundException, EPSNotAvailableException {
+		return getShard(stock).getStockPriceEarningsRatio(stock);
+	}
+
+	public OptionalDecimal findStockPriceEarningsRatio(Stock stock) throws TickerNotFoundException {
+		return getShard(stock).findStockPriceEarningsRatio(stock);
+	}
+
+	/**
+  	 * Calculate the GBCE All Share Index of the whole market, see {@link StockExchange#getGBCEAllShareIndex()}.
+  	 * @return the GBCE All Share Index
+  	 */
+	public BigDecimal getGBCEAllShareIndex() {
+		OptionalDecimal index = findGBCEAllShareIndex();
+		if(!index.isPresent()) {
+			throw new NumberFormatException("No stock has a price");
+		}
+		return index.get();
+	}
+
+	/**
+  	 * Calculate the GBCE All Share Index of the whole market, if any stock has a price. Every shard computes the
+  	 * sum of the logarithms of its stock prices on its own thread, the sums are then added up.
+  	 * @return the GBCE All Share Index, empty if no stock has a price
+  	 */
+	public OptionalDecimal findGBCEAllShareIndex() {
+		return findGBCEAllShareIndex(shards[0].getClock().instant());
+	}
+
+	OptionalDecimal findGBCEAllShareIndex(Instant timestamp) {
+		Instant before = timestamp.minus(StockExchange.PRICE_WINDOW);
+		List<Future<AllShareIndex.Partial>> futures = new ArrayList<>(shards.length);
+		for(int i = 0; i < shards.length; i++) {
+			StockExchange shard = shards[i];
+			futures.add(executors[i].submit(() -> shard.getGBCEAllShareIndexPartial(before)));
+		}
+		AllShareIndex.Partial index = new AllShareIndex.Partial(0, 0);
+		try {
+			for(Future<AllShareIndex.Partial> future: futures) {
+				index = index.combine(await(future));
+			}
+		} catch (TickerNotFoundException e) {
+			throw new IllegalStateException(e); //not expected
+		}
+		return OptionalDecimal.ofNullable(index.getValue());
+	}
+
+	/**
+  	 * Wait for a task of a shard, uninterruptibly since the task cannot be taken back once it has started.
+  	 * The interrupt status of the calling thread is restored afterwards.
+  	 */
+	private static <T> T await(Future<T> future) throws TickerNotFoundException {
+		boolean interrupted = false;
+		try {
+			while(true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if(cause instanceof TickerNotFoundException) {
+						throw (TickerNotFoundException) cause;
+					}
+					if(cause instanceof Error) {
+						throw (Error) cause;
+					}
+					throw (RuntimeException) cause;
+				}
+			}
+		} finally {
+			if(interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+  	 * Stop the threads of the shards, once the tasks already submitted have run.
+  	 */
+	@Override
+	public void close() {
+		for(ExecutorService executor: executors) {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.jpmorgan;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Clock whose instant is set explicitly rather than read from the system, so that a {@link StockExchange} can be
+ * driven at event time, see {@link StockExchange#setClock(Clock)}. The copies returned by {@link #withZone(ZoneId)}
+ * share the instant of this clock.
+ * @author bdinos
+ */
+public final class SimulatedClock extends Clock {
+	private final AtomicReference<Instant> instant;
+	private final ZoneId zone;
+
+	/**
+  	 * Constructor of a clock in the UTC zone.
+  	 * @param instant the initial instant
+  	 */
+	public SimulatedClock(Instant instant) {
+		this(new AtomicReference<>(instant), ZoneOffset.UTC);
+		Validate.notNull(instant);
+	}
+
+	private SimulatedClock(AtomicReference<Instant> instant, ZoneId zone) {
+		this.instant = instant;
+		this.zone = zone;
+	}
+
+	/**
+  	 * @param instant the new instant of the clock
+  	 */
+	public void setInstant(Instant instant) {
+		Validate.notNull(instant);
+		this.instant.set(instant);
+	}
+
+	/**
+  	 * Move the clock forward.
+  	 * @param duration how far the clock is moved
+  	 * @return the new instant of the clock
+  	 */
+	public Instant advance(Duration duration) {
+		Validate.isTrue(!duration.isNegative());
+		return instant.updateAndGet(current -> current.plus(duration));
+	}
+
+	@Override
+	public Instant instant() {
+		return instant.get();
+	}
+
+	@Override
+	public ZoneId getZone() {
+		return zone;
+	}
+
+	@Override
+	public Clock withZone(ZoneId zone) {
+		return zone.equals(this.zone) ? this : new SimulatedClock(instant, zone);
+	}
+}
@@ -0,0 +1,470 @@
+package com.jpmorgan;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.StampedLock;
+
+import com.jpmorgan.StockExchange.Accumulator;
+import com.jpmorgan.model.Bar;
+import com.jpmorgan.model.OrderFlow;
+import com.jpmorgan.model.Ticker;
+import com.jpmorgan.model.Trade;
+import com.jpmorgan.model.Trade.TradeIndicator;
+import com.jpmorgan.model.TradeBatch;
+
+/**
+ * State of a single stock within a {@link StockExchange}: its ticker, its rolling {@link VwapWindow}s of 
+ * per-second, per-minute and per-hour buckets, its per-second windows of buy trades and of sell trades, the 
+ * totals of its trades since the start of the session, and its {@link BarSeries}, if any.
+ * The weighted average price over a window of any length is read from the coarsest buckets fitting in it: at
+ * most 59 seconds, then at most 59 minutes, and then whole hours.
+ * Writers are serialized by a per-stock lock, so that trades of different stocks are recorded concurrently,
+ * while readers use optimistic reads and fall back to a read lock only if a writer got in the way.
+ * @author bdinos
+ */
+final class StockBook {
+	final Ticker ticker;
+	private final PrecisionPolicy precisionPolicy;
+	private final VwapWindow window;
+	private final VwapWindow minutes;
+	private final VwapWindow hours;
+	private final VwapWindow buys;
+	private final VwapWindow sells;
+	private Accumulator session;
+	/** The time stamp of the latest trade in time, the one the ticker price has been set from. */
+	private Instant latestTimestamp;
+	private volatile BarSeries[] barSeries = new BarSeries[0];
+	private final StampedLock lock = new StampedLock();
+	/** Set when a trade has been added since the {@link AllShareIndex} last read the price of this stock. */
+	final AtomicBoolean indexDirty = new AtomicBoolean();
+	/** The logarithm of the price of this stock within the index, or NaN if it has no price; guarded by the index. */
+	double indexLogPrice = Double.NaN;
+	/** The epoch nanoseconds this stock is scheduled to expire at from the index, <code>Long.MAX_VALUE</code> if 
+	 * it is not scheduled; guarded by the index. */
+	long indexExpiry = Long.MAX_VALUE;
+
+	/**
+  	 * Constructor.
+  	 * @param ticker the stock's ticker
+  	 * @param precisionPolicy the precision policy of the market
+  	 */
+	StockBook(Ticker ticker, PrecisionPolicy precisionPolicy) {
+		this.ticker = ticker;
+		this.precisionPolicy = precisionPolicy;
+		this.window = new VwapWindow(precisionPolicy.fixedPoint != null);
+		this.minutes = new VwapWindow(precisionPolicy.fixedPoint != null, 60, 128);
+		this.hours = new VwapWindow(precisionPolicy.fixedPoint != null, 3600, 64);
+		this.buys = new VwapWindow(precisionPolicy.fixedPoint != null);
+		this.sells = new VwapWindow(precisionPolicy.fixedPoint != null);
+		this.session = new Accumulator(precisionPolicy);
+	}
+
+	/**
+  	 * Add a trade to the window of this stock, and set the ticker price to its price unless a later trade has
+  	 * already been added.
+  	 * @param trade the trade to be added
+  	 */
+	void add(Trade trade) {
+		long stamp = lock.writeLock();
+		try {
+			addToWindow(trade);
+			setTickerPrice(trade.timestamp, trade.price);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+  	 * Add a group of trades to the window of this stock, taking the lock once, and set the ticker price once, to 
+  	 * the price of the latest trade in time, unless a later trade has already been added.
+  	 * @param trades an array of trades
+  	 * @param from the index of the first trade to be added
+  	 * @param to the index after the last trade to be added
+  	 */
+	void addAll(Trade[] trades, int from, int to) {
+		long stamp = lock.writeLock();
+		try {
+			Trade latest = trades[from];
+			for(int i = from; i < to; i++) {
+				addToWindow(trades[i]);
+				if(!trades[i].timestamp.isBefore(latest.timestamp)) {
+					latest = trades[i];
+				}
+			}
+			setTickerPrice(latest.timestamp, latest.price);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+  	 * Add rows of a columnar batch of trades of this stock, read straight from the columns, see 
+  	 * {@link #addAll(Trade[], int, int)}. No object is created per row.
+  	 * @param batch the batch
+  	 * @param rows rows of the batch
+  	 * @param from the index of the row of the first trade to be added
+  	 * @param to the index after the row of the last trade to be added
+  	 */
+	void addAll(TradeBatch batch, int[] rows, int from, int to) {
+		FixedPoint fixedPoint = precisionPolicy.fixedPoint;
+		int scale = batch.priceScale;
+		long stamp = lock.writeLock();
+		try {
+			int latest = rows[from];
+			for(int i = from; i < to; i++) {
+				int row = rows[i];
+				long nanos = batch.getEpochNanos(row);
+				long second = Math.floorDiv(nanos, 1_000_000_000L);
+				int quantity = batch.getSharesQuantity(row);
+				long ticks = batch.getPriceTicks(row);
+				VwapWindow side = batch.getTradeIndicator(row) == TradeIndicator.BUY ? buys : sells;
+				if(fixedPoint == null) {
+					addToWindows(second, side, quantity, ticks, scale, Accumulator.amountOf(quantity, ticks, scale, precisionPolicy));
+				} else {
+					addToWindows(second, side, quantity, ticks, scale, Accumulator.notionalOf(quantity, ticks, scale, fixedPoint));
+				}
+				if(nanos >= batch.getEpochNanos(latest)) {
+					latest = row;
+				}
+			}
+			setTickerPrice(Instant.ofEpochSecond(0, batch.getEpochNanos(latest)), BigDecimal.valueOf(batch.getPriceTicks(latest), scale));
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+  	 * Restore the ticker price of this stock from a trade which has not been added, such as a trade skipped by a
+  	 * replay, following the same rule as the trades added.
+  	 * @param timestamp the time stamp of the trade
+  	 * @param price the price of the trade
+  	 */
+	void restoreTickerPrice(Instant timestamp, BigDecimal price) {
+		long stamp = lock.writeLock();
+		try {
+			setTickerPrice(timestamp, price);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	
+	/**
+  	 * Set the ticker price from a trade, unless it is older than the latest trade, so that a trade arriving late
+  	 * never sets the ticker price back. Trades performed at the same instant set it in the order they are added.
+  	 */
+	private void setTickerPrice(Instant timestamp, BigDecimal price) {
+		if(latestTimestamp == null || !timestamp.isBefore(latestTimestamp)) {
+			latestTimestamp = timestamp;
+			ticker.setTickerPrice(price);
+		}
+	}
+
+	private void addToWindow(Trade trade) {
+		FixedPoint fixedPoint = precisionPolicy.fixedPoint;
+		long second = trade.timestamp.getEpochSecond();
+		VwapWindow side = trade.tradeIndicator == TradeIndicator.BUY ? buys : sells;
+		if(fixedPoint == null) {
+			addToWindows(second, side, trade.sharesQuantity, trade.priceTicks, trade.priceScale, Accumulator.amountOf(trade, precisionPolicy));
+		} else {
+			addToWindows(second, side, trade.sharesQuantity, trade.priceTicks, trade.priceScale, Accumulator.notionalOf(trade, fixedPoint));
+		}
+	}
+
+	private void addToWindows(long second, VwapWindow side, int quantity, long priceTicks, int priceScale, BigDecimal amount) {
+		window.add(second, amount, quantity);
+		minutes.add(second, amount, quantity);
+		hours.add(second, amount, quantity);
+		side.add(second, amount, quantity);
+		session.combine(amount, quantity);
+		for(BarSeries series: barSeries) {
+			series.add(second, quantity, priceTicks, priceScale, amount);
+		}
+	}
+
+	private void addToWindows(long second, VwapWindow side, int quantity, long priceTicks, int priceScale, long notional) {
+		window.add(second, notional, quantity);
+		minutes.add(second, notional, quantity);
+		hours.add(second, notional, quantity);
+		side.add(second, notional, quantity);
+		session.combine(notional, quantity);
+		for(BarSeries series: barSeries) {
+			series.add(second, quantity, priceTicks, priceScale, notional);
+		}
+	}
+
+	/**
+  	 * Start building the bars of the given interval, from the next trade on.
+  	 * @param interval the length of the bars
+  	 * @param capacity the number of bar intervals held
+  	 * @return false if the bars of the given interval are already built
+  	 */
+	boolean addBarSeries(Duration interval, int capacity) {
+		long stamp = lock.writeLock();
+		try {
+			for(BarSeries series: barSeries) {
+				if(series.interval.equals(interval)) {
+					return false;
+				}
+			}
+			BarSeries[] barSeries = Arrays.copyOf(this.barSeries, this.barSeries.length + 1);
+			barSeries[barSeries.length - 1] = new BarSeries(interval, capacity, precisionPolicy);
+			this.barSeries = barSeries;
+			return true;
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+  	 * Read the finished bars of the given interval, as a consistent snapshot.
+  	 * @param interval the length of the bars
+  	 * @param timestamp the instant the bars must have ended by
+  	 * @return the bars, oldest first, or null if the bars of the given interval are not built
+  	 */
+	List<Bar> getBars(Duration interval, Instant timestamp) {
+		BarSeries series = null;
+		for(BarSeries candidate: barSeries) {
+			if(candidate.interval.equals(interval)) {
+				series = candidate;
+			}
+		}
+		if(series == null) {
+			return null;
+		}
+		long stamp = lock.tryOptimisticRead();
+		List<Bar> bars = new ArrayList<>();
+		series.readFinished(ticker.stock, timestamp, bars);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				bars = new ArrayList<>();
+				series.readFinished(ticker.stock, timestamp, bars);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return bars;
+	}
+
+	/**
+  	 * Start a new session, resetting the session totals.
+  	 */
+	void startSession() {
+		long stamp = lock.writeLock();
+		try {
+			session = new Accumulator(precisionPolicy);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+
+	/**
+  	 * @return the trades of this stock recorded since the start of the session, accumulated
+  	 */
+	Accumulator accumulateSession() {
+		long stamp = lock.tryOptimisticRead();
+		Accumulator accumulator = new Accumulator(precisionPolicy);
+		accumulator.combine(session);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				accumulator = new Accumulator(precisionPolicy);
+				accumulator.combine(session);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return accumulator;
+	}
+
+	/**
+  	 * Accumulate the trades of this stock performed after the given instant: the whole seconds after it are read
+  	 * from the per-second buckets, and the trades of the second it falls in, performed after it, from the trades
+  	 * retained, so that the result is the same as accumulating every single trade. The trades retained are read
+  	 * altogether once the buckets no longer cover that second.
+  	 * @param before an instant
+  	 * @param trades the trades retained by the market
+  	 * @return the accumulated trades
+  	 */
+	Accumulator accumulateAfter(Instant before, TradeStore trades) {
+		long second = before.getEpochSecond();
+		Accumulator accumulator = accumulateAfter(second);
+		if(accumulator == null) {
+			accumulator = new Accumulator(precisionPolicy);
+			trades.accumulate(ticker.stock, before, null, accumulator);
+		} else if(hasTrades(second)) {
+			trades.accumulate(ticker.stock, before, Instant.ofEpochSecond(second + 1), accumulator);
+		}
+		return accumulator;
+	}
+
+	/**
+  	 * Read the order flow of this stock from the per-second buckets of its buy and sell windows, as a consistent
+  	 * snapshot. Nothing is written, so that readers neither block the writers nor each other.
+  	 * @param fromSecond the epoch second the window starts from, included
+  	 * @param toSecond the epoch second the window ends at, excluded
+  	 * @param window the length of the window
+  	 * @return the order flow
+  	 */
+	OrderFlow getOrderFlow(long fromSecond, long toSecond, Duration window) {
+		long stamp = lock.tryOptimisticRead();
+		OrderFlow orderFlow = readOrderFlow(fromSecond, toSecond, window);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				orderFlow = readOrderFlow(fromSecond, toSecond, window);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return orderFlow;
+	}
+
+	private OrderFlow readOrderFlow(long fromSecond, long toSecond, Duration window) {
+		Accumulator buy = new Accumulator(precisionPolicy);
+		Accumulator sell = new Accumulator(precisionPolicy);
+		buys.accumulateBetween(fromSecond, toSecond, buy);
+		sells.accumulateBetween(fromSecond, toSecond, sell);
+		return new OrderFlow(ticker.stock, window, buy.count, sell.count, buys.countBetween(fromSecond, toSecond), 
+				sells.countBetween(fromSecond, toSecond), buy.weightedAverage(), sell.weightedAverage());
+	}
+
+	/**
+  	 * @param second an epoch second
+  	 * @return true if at least one trade of this stock has been performed in the given second or after it
+  	 */
+	boolean hasTradesFrom(long second) {
+		long stamp = lock.tryOptimisticRead();
+		boolean hasTrades = window.hasTradesFrom(second);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				hasTrades = window.hasTradesFrom(second);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return hasTrades;
+	}
+
+	/**
+  	 * @param second an epoch second
+  	 * @return true if at least one trade of this stock has been performed in the given second
+  	 */
+	boolean hasTrades(long second) {
+		long stamp = lock.tryOptimisticRead();
+		boolean hasTrades = window.hasTrades(second);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				hasTrades = window.hasTrades(second);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return hasTrades;
+	}
+
+	/**
+  	 * Accumulate the trades of this stock performed after the given second, as a consistent snapshot.
+  	 * @param second an epoch second
+  	 * @return the accumulated trades, or null if the window does not cover the given second any more
+  	 */
+	Accumulator accumulateAfter(long second) {
+		long stamp = lock.tryOptimisticRead();
+		Accumulator accumulator = readWindow(second);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				accumulator = readWindow(second);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return accumulator;
+	}
+
+	/**
+  	 * Find the first second read from the buckets for a window starting in the given second. The buckets are 
+  	 * those of the finest window covering that second: the trades performed after the given second and before 
+  	 * that one are left out of the buckets.
+  	 * @param second an epoch second
+  	 * @return the first second of the buckets, or <code>Long.MIN_VALUE</code> if no window covers the given 
+  	 * second
+  	 */
+	long bucketsFrom(long second) {
+		long stamp = lock.tryOptimisticRead();
+		long from = firstBucketSecond(second);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				from = firstBucketSecond(second);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return from;
+	}
+
+	/**
+  	 * Accumulate the trades of this stock performed in the buckets from the given second on, as a consistent 
+  	 * snapshot, see {@link #bucketsFrom(long)}.
+  	 * @param from the first second of the buckets
+  	 * @return the accumulated trades
+  	 */
+	Accumulator accumulateBucketsFrom(long from) {
+		long stamp = lock.tryOptimisticRead();
+		Accumulator accumulator = readBuckets(from);
+		if(!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				accumulator = readBuckets(from);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return accumulator;
+	}
+
+	private Accumulator readWindow(long second) {
+		return window.covers(second) ? readWindows(second) : null;
+	}
+
+	private long firstBucketSecond(long second) {
+		long from = second + 1;
+		if(!window.covers(second)) {
+			if(minutes.covers(second)) {
+				from = ceil(from, minutes.resolution);
+			} else if(hours.covers(second)) {
+				from = ceil(from, hours.resolution);
+			} else {
+				return Long.MIN_VALUE;
+			}
+		}
+		return from;
+	}
+
+	private Accumulator readWindows(long second) {
+		long from = firstBucketSecond(second);
+		return from == Long.MIN_VALUE ? null : readBuckets(from);
+	}
+
+	private Accumulator readBuckets(long from) {
+		Accumulator accumulator = new Accumulator(precisionPolicy);
+		long minute = ceil(from, minutes.resolution);
+		long hour = ceil(minute, hours.resolution);
+		window.accumulateBetween(from, minute, accumulator);
+		minutes.accumulateBetween(minute, hour, accumulator);
+		hours.accumulateBetween(hour, Long.MAX_VALUE, accumulator);
+		return accumulator;
+	}
+
+	private static long ceil(long second, int resolution) {
+		return -Math.floorDiv(-second, resolution) * resolution;
+	}
+}
@@ -0,0 +1,73 @@
+package com.jpmorgan;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.jpmorgan.model.Stock;
+
+/**
+ * Table of the {@link StockBook}s of a market, indexed by stock id, so that finding the book of a stock is an
+ * array lookup. The table grows as stocks are registered; lookups and iterations never lock.
+ * @author bdinos
+ */
+final class StockBooks implements Iterable<StockBook> {
+	private volatile AtomicReferenceArray<StockBook> books = new AtomicReferenceArray<>(16);
+
+	/**
+  	 * @param stock a stock
+  	 * @return the book of the given stock, or null if it has not been registered
+  	 */
+	StockBook get(Stock stock) {
+		AtomicReferenceArray<StockBook> books = this.books;
+		return stock.id < books.length() ? books.get(stock.id) : null;
+	}
+
+	/**
+  	 * Add a book, unless the stock has already one.
+  	 * @param book the book to be added
+  	 * @return true if the book has been added
+  	 */
+	synchronized boolean putIfAbsent(StockBook book) {
+		int id = book.ticker.stock.id;
+		AtomicReferenceArray<StockBook> books = this.books;
+		if(id >= books.length()) {
+			AtomicReferenceArray<StockBook> grown = new AtomicReferenceArray<>(Math.max(id + 1, books.length() * 2));
+			for(int i = 0; i < books.length(); i++) {
+				grown.set(i, books.get(i));
+			}
+			this.books = books = grown;
+		}
+		return books.compareAndSet(id, null, book);
+	}
+
+	@Override
+	public Iterator<StockBook> iterator() {
+		AtomicReferenceArray<StockBook> books = this.books;
+		return new Iterator<StockBook>() {
+			private int next = advance(0);
+
+			private int advance(int from) {
+				while(from < books.length() && books.get(from) == null) {
+					from++;
+				}
+				return from;
+			}
+
+			@Override
+			public boolean hasNext() {
+				return next < books.length();
+			}
+
+			@Override
+			public StockBook next() {
+				if(!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				StockBook book = books.get(next);
+				next = advance(next + 1);
+				return book;
+			}
+		};
+	}
+}
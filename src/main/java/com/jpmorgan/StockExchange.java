@@ -1,70 +1,194 @@
 package com.jpmorgan;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.commons.lang.Validate;
-import org.apache.commons.math3.stat.StatUtils;
 
+import com.jpmorgan.model.Bar;
+import com.jpmorgan.model.MarketSnapshot;
+import com.jpmorgan.model.OptionalDecimal;
+import com.jpmorgan.model.OrderFlow;
 import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.StockUpdate;
 import com.jpmorgan.model.Ticker;
 import com.jpmorgan.model.Ticker.EPSNotAvailableException;
 import com.jpmorgan.model.Ticker.TickerPriceNotAvailableException;
 import com.jpmorgan.model.Trade;
+import com.jpmorgan.model.TradeBatch;
 
 /**
  * This is the main class of the Super Simple Stocks application. It contains methods for registering stocks,
  * recording trades and get the relevant information about a stock.
  * Stocks should be registered to the market by using the {@link StockExchange#registerTicker(Ticker)} method.
  * Trades should be recorded by using the {@link StockExchange#recordTrade(Trade)} method.
+ * The class is thread-safe: trades of different stocks update their books and their segments of the columnar
+ * trade store concurrently, and price queries read both optimistically, so that they do not block the threads 
+ * recording trades unless they race one of them.
+ * Readers which only need a recent view of the whole market can rather read the immutable snapshot the market 
+ * publishes as trades are recorded, see {@link #setSnapshotInterval(Duration)}, at the cost of a volatile read.
  * @author bdinos
  */
 public class StockExchange {
 	public static final MathContext MATH_CTX = new MathContext(2, RoundingMode.HALF_UP);
 	
-	private final HashMap<Stock, Ticker> tickersByStock = new HashMap<>();
+	/** The window the stock prices and the GBCE All Share Index are calculated on. */
+	public static final Duration PRICE_WINDOW = Duration.ofMinutes(15);
 	
-	private final TreeSet<Trade> trades = new TreeSet<>( (t1, t2) -> {
-		return t1.timestamp.compareTo(t2.timestamp);
-	});
+	private static final Comparator<Trade> BY_STOCK_ID = Comparator.comparingInt(trade -> trade.stock.id);
+	
+	private final StockBooks books = new StockBooks();
+	
+	private final TradeStore trades = new TradeStore();
+	
+	private final AllShareIndex allShareIndex = new AllShareIndex(books, trades);
+	
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	
+	private final ReentrantLock snapshotLock = new ReentrantLock();
+	
+	private volatile Duration snapshotInterval;
+	
+	private volatile boolean snapshotPending;
+	
+	private volatile MarketSnapshot publishedSnapshot;
+	
+	/** The epoch of the latest snapshot published; guarded by the snapshot lock. */
+	private long snapshotEpoch;
+	
+	/** The time the latest snapshot has been published at, in epoch milliseconds; guarded by the snapshot lock. */
+	private long snapshotMillis;
+	
+	private volatile RetentionPolicy retentionPolicy;
+	
+	private volatile TradeJournal journal;
+	
+	private volatile Subscription[] subscriptions = new Subscription[0];
+	
+	/** Guards the replacement of the subscriptions and of the reorder buffer. */
+	private final Object lock = new Object();
+	
+	private volatile ExchangeMetrics metrics;
+	
+	private volatile ReorderBuffer reorderBuffer;
+	
+	private volatile Clock clock = Clock.systemUTC();
+	
+	private final PrecisionPolicy precisionPolicy;
+	
+	/**
+  	 * Constructor of a market using the {@link PrecisionPolicy#DEFAULT} precision policy, each price x quantity 
+  	 * product and each result being rounded with {@link #MATH_CTX}.
+  	 */
+	public StockExchange() {
+		this(PrecisionPolicy.DEFAULT);
+	}
+	
+	/**
+  	 * Constructor of a market using the given precision policy.
+  	 * @param precisionPolicy the precision policy of the calculations of the market and of its tickers
+  	 */
+	public StockExchange(PrecisionPolicy precisionPolicy) {
+		Validate.notNull(precisionPolicy);
+		this.precisionPolicy = precisionPolicy;
+	}
+	
+	/**
+  	 * Constructor of a market accumulating prices in the given fixed-point representation, which keeps the 
+  	 * trade recording path free of allocations. The price x quantity products are accumulated exactly as long 
+  	 * values and the weighted average is rounded with {@link #MATH_CTX} only when queried: for trade prices 
+  	 * having no more decimal digits than the fixed-point scale, the stock prices are the same as the exact 
+  	 * <code>BigDecimal</code> weighted averages rounded with {@link #MATH_CTX}, whereas the default 
+  	 * representation also rounds every single product.
+  	 * @param fixedPoint the fixed-point representation of prices
+  	 * @see PrecisionPolicy#fixedPoint(FixedPoint, MathContext)
+  	 */
+	public StockExchange(FixedPoint fixedPoint) {
+		this(PrecisionPolicy.fixedPoint(fixedPoint, MATH_CTX));
+	}
+	
+	public PrecisionPolicy getPrecisionPolicy() {
+		return precisionPolicy;
+	}
+	
+	/**
+  	 * Set the clock the market reads the current time from, for the queries over the latest trades and for the 
+  	 * ingestion lag: a simulated clock replays recorded trades at event time, see {@link ReplayEngine}.
+  	 * @param clock the clock
+  	 */
+	public void setClock(Clock clock) {
+		Validate.notNull(clock);
+		this.clock = clock;
+	}
+	
+	public Clock getClock() {
+		return clock;
+	}
 	
 	protected Set<Trade> getLatestTrades(Instant timestamp, int minutes) {
 		Validate.isTrue(minutes > 0);
-		Instant before = timestamp.minus(minutes, ChronoUnit.MINUTES);
-		return trades.stream().filter( trade -> trade.timestamp.isAfter(before) ).collect(Collectors.toSet());
+		return getLatestTrades(timestamp, Duration.ofMinutes(minutes));
+	}
+	
+	protected Set<Trade> getLatestTrades(Instant timestamp, Duration window) {
+		Validate.isTrue(!window.isNegative() && !window.isZero());
+		return new HashSet<>(trades.after(timestamp.minus(window)));
 	}
 	
 	protected  Set<Trade> getLatestTrades(int minutes) {
-		return getLatestTrades(Instant.now(), minutes);
+		return getLatestTrades(clock.instant(), minutes);
 	}
 	
 	/**
-  	 * Calculate the GBCE All Share Index, as the geometric mean of all stock prices.
+  	 * Calculate the GBCE All Share Index, as the geometric mean of all stock prices. The index is maintained 
+  	 * incrementally over the window of the stock prices, see {@link AllShareIndex}.
   	 * @return the GBCE All Share Index
   	 */
 	public BigDecimal getGBCEAllShareIndex() {
-		Set<Trade> latestTrades = getLatestTrades(15);
-		Collection<BigDecimal> prices = new ArrayList<>();
-		for(Ticker ticker: tickersByStock.values()) {
-			try {
-				BigDecimal price = getStockPrice(ticker.stock, latestTrades);
-				prices.add(price);
-			} catch (NotEnoughDataPointsException e) {
-				//do nothing
-			}
+		OptionalDecimal index = findGBCEAllShareIndex();
+		if(!index.isPresent()) {
+			throw new NumberFormatException("No stock has a price");
 		}
-		double[] pricesArr = prices.stream().mapToDouble(i-> i.doubleValue()).toArray();
-		return BigDecimal.valueOf(StatUtils.geometricMean(pricesArr));
+		return index.get();
+	}
+	
+	/**
+  	 * Calculate the GBCE All Share Index, if any stock has a price, see {@link #getGBCEAllShareIndex()}.
+  	 * @return the GBCE All Share Index, empty if no stock has a price
+  	 */
+	public OptionalDecimal findGBCEAllShareIndex() {
+		ExchangeMetrics metrics = this.metrics;
+		if(metrics == null) {
+			return OptionalDecimal.ofNullable(allShareIndex.getValue(clock.instant().minus(PRICE_WINDOW)));
+		}
+		long start = System.nanoTime();
+		OptionalDecimal index = OptionalDecimal.ofNullable(allShareIndex.getValue(clock.instant().minus(PRICE_WINDOW)));
+		metrics.indexQueried(start);
+		return index;
+	}
+	
+	/**
+  	 * @param before the instant the price window starts at
+  	 * @return the partial result of the GBCE All Share Index over the stocks of this market
+  	 */
+	AllShareIndex.Partial getGBCEAllShareIndexPartial(Instant before) {
+		return allShareIndex.getPartial(before);
 	}
 	
 	/**
@@ -75,8 +199,148 @@ public class StockExchange {
   	 * @throws NotEnoughDataPointsException if not enough trade data is available in order to perform the calculation
   	 */
 	public BigDecimal getStockPrice(Stock stock) throws NotEnoughDataPointsException {
-		Set<Trade> latestTrades = getLatestTrades(15);
-		return getStockPrice(stock, latestTrades);
+		return findStockPrice(stock).orElseThrow(NotEnoughDataPointsException::new);
+	}
+	
+	/**
+  	 * Calculate the price of a stock, if it has been traded in the latest 15 minutes, see 
+  	 * {@link #getStockPrice(Stock)}. A stock which has not been traded is found out without any allocation.
+  	 * @param stock
+  	 * @return the stock's price, empty if not enough trade data is available in order to perform the calculation
+  	 */
+	public OptionalDecimal findStockPrice(Stock stock) {
+		ExchangeMetrics metrics = this.metrics;
+		if(metrics == null) {
+			return findLatestStockPrice(stock);
+		}
+		long start = System.nanoTime();
+		OptionalDecimal price = findLatestStockPrice(stock);
+		metrics.stockPriceQueried(start);
+		return price;
+	}
+	
+	private OptionalDecimal findLatestStockPrice(Stock stock) {
+		StockBook book = books.get(stock);
+		// checked before the clock is read as an Instant, so that a miss allocates nothing
+		if(book == null || !book.hasTradesFrom(Math.floorDiv(clock.millis() - PRICE_WINDOW.toMillis(), 1000))) {
+			return OptionalDecimal.empty();
+		}
+		return OptionalDecimal.ofNullable(accumulateAfter(stock, clock.instant().minus(PRICE_WINDOW)).weightedAverage());
+	}
+	
+	protected BigDecimal getStockPrice(Stock stock, Instant timestamp, int minutes) throws NotEnoughDataPointsException {
+		Validate.isTrue(minutes > 0);
+		return getWeightedAverage(stock, timestamp.minus(minutes, ChronoUnit.MINUTES));
+	}
+	
+	/**
+  	 * Calculate the weighted average price of the trades of a stock performed in the given window, e.g. 1, 5, 15
+  	 * or 60 minutes, up to now. The price is read from the finest per-second, per-minute or per-hour buckets still
+  	 * held for the start of the window, depending on whether it starts within the latest 17 minutes, 2 hours, or 
+  	 * 2 days, while the trades of the bucket the window starts in, performed after its start, are read from the 
+  	 * trades retained, as {@link #getStockPrice(Stock)} does: over 15 minutes, both give the same price. Those 
+  	 * trades are left out once the retention policy has evicted them. Older windows are calculated from the trades
+  	 * retained.
+  	 * @param stock
+  	 * @param window the length of the window
+  	 * @return the stock's price over the window
+  	 * @throws NotEnoughDataPointsException if no trade of the stock has been performed in the window
+  	 */
+	public BigDecimal getStockPrice(Stock stock, Duration window) throws NotEnoughDataPointsException {
+		return getStockPrice(stock, clock.instant(), window);
+	}
+	
+	protected BigDecimal getStockPrice(Stock stock, Instant timestamp, Duration window) throws NotEnoughDataPointsException {
+		Validate.isTrue(!window.isNegative() && !window.isZero());
+		StockBook book = books.get(stock);
+		if(book == null) {
+			throw new NotEnoughDataPointsException();
+		}
+		Instant before = timestamp.minus(window);
+		long from = book.bucketsFrom(before.getEpochSecond());
+		if(from == Long.MIN_VALUE) {
+			return accumulateRetained(stock, before).getWeightedAverage();
+		}
+		Accumulator accumulator = book.accumulateBucketsFrom(from);
+		trades.accumulate(stock, before, Instant.ofEpochSecond(from), accumulator);
+		return accumulator.getWeightedAverage();
+	}
+	
+	/**
+  	 * Calculate the weighted average price of the trades of a stock recorded since the start of the session.
+  	 * @param stock
+  	 * @return the stock's price over the session
+  	 * @throws NotEnoughDataPointsException if no trade of the stock has been recorded in the session
+  	 */
+	public BigDecimal getSessionStockPrice(Stock stock) throws NotEnoughDataPointsException {
+		StockBook book = books.get(stock);
+		if(book == null) {
+			throw new NotEnoughDataPointsException();
+		}
+		return book.accumulateSession().getWeightedAverage();
+	}
+	
+	/**
+  	 * Get the order flow of a stock over the latest 15 minutes: the volume, the number of trades and the weighted
+  	 * average price of its buy trades and of its sell trades, from which the buy/sell imbalance is derived. The 
+  	 * per-side buckets are updated in O(1) as trades are recorded, and read with an optimistic read, in time 
+  	 * proportional to the seconds of the window whatever the number of trades. The window is aligned to whole 
+  	 * seconds: the trades of the second it starts in are left out, those of the current second are included.
+  	 * @param stock
+  	 * @return the order flow of the stock
+  	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 */
+	public OrderFlow getOrderFlow(Stock stock) throws TickerNotFoundException {
+		return getOrderFlow(stock, clock.instant());
+	}
+	
+	protected OrderFlow getOrderFlow(Stock stock, Instant timestamp) throws TickerNotFoundException {
+		long toSecond = timestamp.getEpochSecond() + 1;
+		return getBook(stock).getOrderFlow(toSecond - PRICE_WINDOW.getSeconds(), toSecond, PRICE_WINDOW);
+	}
+	
+	/**
+  	 * Build the OHLCV bars of a stock for the given interval, e.g. 1 second or 1 minute, from the next trade on.
+  	 * The bars are updated as trades are recorded, see {@link BarSeries}, and the finished ones are read by 
+  	 * {@link #getBars(Stock, Duration)}.
+  	 * @param stock
+  	 * @param interval the length of the bars, a whole positive number of seconds
+  	 * @param capacity the number of bar intervals held, the bars older than that being dropped
+  	 * @return false if the bars of the stock for the given interval are already built
+  	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 */
+	public boolean addBars(Stock stock, Duration interval, int capacity) throws TickerNotFoundException {
+		Validate.isTrue(interval.getSeconds() > 0 && interval.getNano() == 0, "Bar intervals are whole seconds");
+		Validate.isTrue(capacity > 0);
+		return getBook(stock).addBarSeries(interval, capacity);
+	}
+	
+	/**
+  	 * Get the finished OHLCV bars of a stock, the bars whose interval has ended by now.
+  	 * @param stock
+  	 * @param interval the length of the bars
+  	 * @return the bars held, oldest first; intervals with no trade have no bar
+  	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 * @throws IllegalArgumentException if the bars of the stock for the given interval are not built
+  	 */
+	public List<Bar> getBars(Stock stock, Duration interval) throws TickerNotFoundException {
+		return getBars(stock, interval, clock.instant());
+	}
+	
+	protected List<Bar> getBars(Stock stock, Duration interval, Instant timestamp) throws TickerNotFoundException {
+		List<Bar> bars = getBook(stock).getBars(interval, timestamp);
+		Validate.isTrue(bars != null, "Bars not built for interval ", interval);
+		return bars;
+	}
+	
+	/**
+  	 * Start a new session: the session prices only account for the trades recorded from now on. The first 
+  	 * session starts when the market is created.
+  	 */
+	public void startSession() {
+		for(StockBook book: books) {
+			book.startSession();
+		}
 	}
 	
 	/**
@@ -87,11 +351,17 @@ public class StockExchange {
   	 * @throws TickerPriceNotAvailableException if the stock has not been marketed yet
   	 */
 	public BigDecimal getStockDividendYield(Stock stock) throws TickerNotFoundException, TickerPriceNotAvailableException {
-		Ticker ticker = tickersByStock.get(stock);
-		if(ticker == null) {
-			throw new TickerNotFoundException(stock);
-		}
-		return ticker.getDividendYield();
+		return getBook(stock).ticker.getDividendYield();
+	}
+	
+	/**
+  	 * Calculate the dividend yield of a stock, if it has been marketed, see {@link #getStockDividendYield(Stock)}.
+  	 * @param stock
+  	 * @return the stock's dividend yield, empty if the stock has not been marketed yet
+  	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 */
+	public OptionalDecimal findStockDividendYield(Stock stock) throws TickerNotFoundException {
+		return getBook(stock).ticker.findDividendYield();
 	}
 	
 	/**
@@ -113,65 +383,872 @@ public class StockExchange {
   	 * @throws EPSNotAvailableException if no data is available to calculate the EPS
   	 */
 	public BigDecimal getStockPriceEarningsRatio(Stock stock) throws TickerNotFoundException, EPSNotAvailableException {
-		Ticker ticker = tickersByStock.get(stock);
-		if(ticker == null) {
+		return getBook(stock).ticker.getPriceEarningsRatio();
+	}
+	
+	/**
+  	 * Calculate the PE ratio of a stock, if it is available, see {@link #getStockPriceEarningsRatio(Stock)}.
+  	 * @param stock
+  	 * @return the stock's PE ratio, empty if no data is available to calculate the EPS
+  	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 */
+	public OptionalDecimal findStockPriceEarningsRatio(Stock stock) throws TickerNotFoundException {
+		return getBook(stock).ticker.findPriceEarningsRatio();
+	}
+	
+	/**
+  	 * Get the latest values of a stock, the values which are not available being null.
+  	 */
+	StockUpdate getStockUpdate(Stock stock) {
+		Ticker ticker = books.get(stock).ticker;
+		return new StockUpdate(stock, accumulateAfter(stock, clock.instant().minus(PRICE_WINDOW)).weightedAverage(), 
+				ticker.findDividendYield().orElse(null), ticker.findPriceEarningsRatio().orElse(null));
+	}
+	
+	/**
+  	 * Subscribe a listener to the updates of the stock prices, dividend yields, PE ratios and of the GBCE All 
+  	 * Share Index, which get published as trades are recorded. The updates are delivered by the given executor, 
+  	 * one at a time, and are coalesced to the latest values of each stock, see {@link Subscription}. A direct 
+  	 * executor delivers them in the threads recording trades.
+  	 * @param listener the listener
+  	 * @param executor the executor delivering the updates
+  	 * @return the subscription, to be cancelled when the updates are not needed any more
+  	 */
+	public Subscription subscribe(MarketListener listener, Executor executor) {
+		Validate.notNull(listener);
+		Validate.notNull(executor);
+		Subscription subscription = new Subscription(this, listener, executor);
+		synchronized(lock) {
+			Subscription[] subscriptions = Arrays.copyOf(this.subscriptions, this.subscriptions.length + 1);
+			subscriptions[subscriptions.length - 1] = subscription;
+			this.subscriptions = subscriptions;
+		}
+		return subscription;
+	}
+	
+	void unsubscribe(Subscription subscription) {
+		synchronized(lock) {
+			List<Subscription> subscriptions = new ArrayList<>(Arrays.asList(this.subscriptions));
+			subscriptions.remove(subscription);
+			this.subscriptions = subscriptions.toArray(new Subscription[subscriptions.size()]);
+		}
+	}
+	
+	private void publish(Stock stock) {
+		for(Subscription subscription: subscriptions) {
+			subscription.markPending(stock);
+		}
+	}
+	
+	/**
+  	 * @param stock
+  	 * @return true if the stock has a ticker associated
+  	 */
+	boolean isRegistered(Stock stock) {
+		return books.get(stock) != null;
+	}
+	
+	private StockBook getBook(Stock stock) throws TickerNotFoundException {
+		StockBook book = books.get(stock);
+		if(book == null) {
 			throw new TickerNotFoundException(stock);
 		}
-		return ticker.getPriceEarningsRatio();
+		return book;
 	}
 	
-	private static class Accumulator {
+	static class Accumulator {
+		final PrecisionPolicy precisionPolicy;
+		final FixedPoint fixedPoint;
 		BigDecimal amount = BigDecimal.ZERO;
+		long notional;
         long count;
         
+		Accumulator() {
+			this(PrecisionPolicy.DEFAULT);
+		}
+		
+		Accumulator(PrecisionPolicy precisionPolicy) {
+			this.precisionPolicy = precisionPolicy;
+			this.fixedPoint = precisionPolicy.fixedPoint;
+		}
+		
 		public BigDecimal getWeightedAverage() throws NotEnoughDataPointsException {
+			BigDecimal weightedAverage = weightedAverage();
+			if(weightedAverage == null) {
+				throw new NotEnoughDataPointsException();
+			}
+			return weightedAverage;
+		}
+		
+		/**
+  		 * @return the weighted average, or null if nothing has been accumulated
+  		 */
+		BigDecimal weightedAverage() {
 			if(count > 0) {
-				return amount.divide(BigDecimal.valueOf(count), MATH_CTX);
+				BigDecimal total = fixedPoint == null ? amount : fixedPoint.toBigDecimal(notional);
+				return total.divide(BigDecimal.valueOf(count), precisionPolicy.resultContext);
 			}
-			throw new NotEnoughDataPointsException();
+			return null;
+		}
+		
+		static BigDecimal amountOf(Trade trade, PrecisionPolicy precisionPolicy) {
+			return BigDecimal.valueOf(trade.sharesQuantity).multiply(trade.price, precisionPolicy.productContext);
+		}
+		
+		static BigDecimal amountOf(int sharesQuantity, long priceTicks, int priceScale, PrecisionPolicy precisionPolicy) {
+			return BigDecimal.valueOf(sharesQuantity).multiply(BigDecimal.valueOf(priceTicks, priceScale), precisionPolicy.productContext);
+		}
+		
+		static long notionalOf(Trade trade, FixedPoint fixedPoint) {
+			return notionalOf(trade.sharesQuantity, trade.priceTicks, trade.priceScale, fixedPoint);
+		}
+		
+		static long notionalOf(int sharesQuantity, long priceTicks, int priceScale, FixedPoint fixedPoint) {
+			return Math.multiplyExact(fixedPoint.toTicks(priceTicks, priceScale), sharesQuantity);
 		}
 		
 		Accumulator accumulate(Trade trade) {
-			amount = amount.add(BigDecimal.valueOf(trade.sharesQuantity).multiply(trade.price, MATH_CTX));
+			if(fixedPoint == null) {
+				amount = amount.add(amountOf(trade, precisionPolicy));
+			} else {
+				notional = Math.addExact(notional, notionalOf(trade, fixedPoint));
+			}
 			count += trade.sharesQuantity;
 			return this;
 		}
 		
+		/**
+  		 * Accumulate a trade read from the columns of a {@link TradeStore}, its price being given as a fixed-point
+  		 * value, see {@link Trade#priceTicks}.
+  		 */
+		void accumulate(int sharesQuantity, long priceTicks, int priceScale) {
+			if(fixedPoint == null) {
+				amount = amount.add(amountOf(sharesQuantity, priceTicks, priceScale, precisionPolicy));
+			} else {
+				notional = Math.addExact(notional, notionalOf(sharesQuantity, priceTicks, priceScale, fixedPoint));
+			}
+			count += sharesQuantity;
+		}
+		
 		void combine(Accumulator box) {
-			amount = amount.add(box.amount);
-			count += box.count;
+			combine(box.amount, 0);
+			combine(box.notional, box.count);
+		}
+		
+		void combine(BigDecimal amount, long count) {
+			this.amount = this.amount.add(amount);
+			this.count += count;
+		}
+		
+		void combine(long notional, long count) {
+			this.notional = Math.addExact(this.notional, notional);
+			this.count += count;
 		}
     }
 	
-	private BigDecimal getStockPrice(Stock stock, Set<Trade> latestTrades) throws NotEnoughDataPointsException {
-		Stream<Trade> tradeStream = latestTrades.stream().filter( trade -> trade.stock == stock );
-		return tradeStream.collect(Accumulator::new, Accumulator::accumulate, Accumulator::combine).getWeightedAverage();
+	/**
+  	 * Calculate the weighted average price of the trades of a stock performed after the given instant. Whole
+  	 * seconds are read from the stock's {@link StockBook}, while the trades of the second the given instant
+  	 * falls in are read one by one, so that the result is the same as accumulating every single trade.
+  	 */
+	private BigDecimal getWeightedAverage(Stock stock, Instant before) throws NotEnoughDataPointsException {
+		return accumulateAfter(stock, before).getWeightedAverage();
+	}
+	
+	/**
+  	 * Accumulate the trades of a stock performed after the given instant, see 
+  	 * {@link #getWeightedAverage(Stock, Instant)}.
+  	 */
+	private Accumulator accumulateAfter(Stock stock, Instant before) {
+		StockBook book = books.get(stock);
+		return book == null ? new Accumulator(precisionPolicy) : book.accumulateAfter(before, trades);
+	}
+	
+	private Accumulator accumulateRetained(Stock stock, Instant before) {
+		Accumulator accumulator = new Accumulator(precisionPolicy);
+		trades.accumulate(stock, before, null, accumulator);
+		return accumulator;
+	}
+	
+	/**
+  	 * Take a snapshot of the market: the price, the dividend yield and the PE ratio of every stock registered, 
+  	 * and the GBCE All Share Index. The prices are calculated together: the trades of the second the window starts
+  	 * in are read once for all the stocks, instead of once per stock. Values which are not available are flagged
+  	 * as such, no exception is thrown.
+  	 * @return the snapshot
+  	 */
+	public MarketSnapshot snapshot() {
+		return snapshot(clock.instant());
+	}
+	
+	protected MarketSnapshot snapshot(Instant timestamp) {
+		return snapshot(timestamp, 0);
+	}
+	
+	private MarketSnapshot snapshot(Instant timestamp, long epoch) {
+		List<StockBook> books = new ArrayList<>();
+		for(StockBook book: this.books) {
+			books.add(book);
+		}
+		Instant before = timestamp.minus(PRICE_WINDOW);
+		long second = before.getEpochSecond();
+		Stock[] stocks = new Stock[books.size()];
+		Accumulator[] accumulators = new Accumulator[books.size()];
+		Accumulator[] accumulatorsById = new Accumulator[Stock.count()];
+		boolean boundaryTrades = false;
+		for(int i = 0; i < stocks.length; i++) {
+			StockBook book = books.get(i);
+			stocks[i] = book.ticker.stock;
+			accumulators[i] = book.accumulateAfter(second);
+			if(accumulators[i] == null) {
+				accumulators[i] = accumulateRetained(stocks[i], before);
+			} else if(book.hasTrades(second) && stocks[i].id < accumulatorsById.length) {
+				accumulatorsById[stocks[i].id] = accumulators[i];
+				boundaryTrades = true;
+			}
+		}
+		if(boundaryTrades) {
+			trades.accumulateAll(before, Instant.ofEpochSecond(second + 1), accumulatorsById);
+		}
+		BigDecimal[] prices = new BigDecimal[stocks.length];
+		BigDecimal[] dividendYields = new BigDecimal[stocks.length];
+		BigDecimal[] priceEarningsRatios = new BigDecimal[stocks.length];
+		for(int i = 0; i < stocks.length; i++) {
+			prices[i] = accumulators[i].weightedAverage();
+			dividendYields[i] = books.get(i).ticker.findDividendYield().orElse(null);
+			priceEarningsRatios[i] = books.get(i).ticker.findPriceEarningsRatio().orElse(null);
+		}
+		BigDecimal index = allShareIndex.getValue(before);
+		return new MarketSnapshot(epoch, timestamp, stocks, prices, dividendYields, priceEarningsRatios, index);
 	}
 	
 	/**
-  	 * Register a stock into the market by providing its initial ticker @see {@link Ticker}.
+  	 * Set the cadence the market publishes snapshots at, see {@link #getPublishedSnapshot()}. Snapshots are taken
+  	 * by the threads recording trades, one at a time: a thread finding the snapshot lock taken leaves the 
+  	 * publication to the thread holding it, which publishes again before returning. With a positive interval, a 
+  	 * snapshot is published by the first trade recorded once the interval has elapsed since the previous one, so
+  	 * that the latest trades are not published until another trade is recorded or 
+  	 * {@link #publishSnapshot()} is called.
+  	 * @param snapshotInterval the interval between two snapshots, zero to publish one after every trade or batch
+  	 * of trades, or null to stop publishing
+  	 */
+	public void setSnapshotInterval(Duration snapshotInterval) {
+		Validate.isTrue(snapshotInterval == null || !snapshotInterval.isNegative());
+		this.snapshotInterval = snapshotInterval;
+	}
+	
+	public Duration getSnapshotInterval() {
+		return snapshotInterval;
+	}
+	
+	/**
+  	 * Get the latest snapshot published by the market. The snapshot is immutable and read with a single volatile
+  	 * read, so that any number of readers query it without locking and without slowing down the threads 
+  	 * recording trades. The snapshot reflects the market as it was when it was published: see its time stamp and 
+  	 * its epoch.
+  	 * @return the latest snapshot published, or null if none has been published yet
+  	 */
+	public MarketSnapshot getPublishedSnapshot() {
+		return publishedSnapshot;
+	}
+	
+	/**
+  	 * Publish a snapshot of the market now, whatever the snapshot interval, e.g. from a timer when the trades 
+  	 * stop flowing.
+  	 * @return the snapshot published
+  	 */
+	public MarketSnapshot publishSnapshot() {
+		snapshotLock.lock();
+		try {
+			snapshotPending = false;
+			return publish();
+		} finally {
+			snapshotLock.unlock();
+		}
+	}
+	
+	/**
+  	 * Take a snapshot and publish it; the snapshot lock must be held.
+  	 */
+	private MarketSnapshot publish() {
+		Instant now = clock.instant();
+		MarketSnapshot snapshot = snapshot(now, ++snapshotEpoch);
+		publishedSnapshot = snapshot;
+		snapshotMillis = now.toEpochMilli();
+		return snapshot;
+	}
+	
+	/**
+  	 * Publish a snapshot if one is due after trades have been recorded, unless another thread is publishing one.
+  	 */
+	private void publishSnapshotIfDue() {
+		Duration snapshotInterval = this.snapshotInterval;
+		if(snapshotInterval == null) {
+			return;
+		}
+		snapshotPending = true;
+		while(snapshotPending && snapshotLock.tryLock()) {
+			try {
+				long elapsed = clock.millis() - snapshotMillis; // negative if the clock has been set back
+				if(!snapshotPending || elapsed >= 0 && elapsed < snapshotInterval.toMillis()) {
+					return;
+				}
+				snapshotPending = false;
+				publish();
+			} finally {
+				snapshotLock.unlock();
+			}
+		}
+	}
+	
+	/**
+  	 * Register a stock into the market by providing its initial ticker @see {@link Ticker}. The ticker adopts 
+  	 * the precision policy of the market.
   	 * @param ticker the stock's ticker
   	 * @throws DuplicateTickerException if a ticker for the given stock has been already registered
+  	 * @throws UncheckedIOException if the ticker could not be appended to the journal, in which case it is 
+  	 * registered anyway
   	 */
 	public void registerTicker(Ticker ticker) throws DuplicateTickerException {
-		if(tickersByStock.containsKey(ticker.stock)) {
+		if(!register(ticker)) {
 			throw new DuplicateTickerException(ticker.stock);
 		}
-		tickersByStock.put(ticker.stock, ticker);
+		TradeJournal journal = this.journal;
+		if(journal != null) {
+			try {
+				journal.append(ticker);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+	
+	/**
+  	 * Update the dividends and the par value of a registered stock to those of the given ticker, appending the
+  	 * update to the journal, if any, so that it gets replayed as well. The ticker price is left as it is, it is
+  	 * only ever set by the trades.
+  	 * @param ticker a ticker of the stock, holding its new dividends and par value
+  	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 * @throws UncheckedIOException if the ticker could not be appended to the journal, in which case it is not
+  	 * updated
+  	 */
+	public void updateTicker(Ticker ticker) throws TickerNotFoundException {
+		StockBook book = getBook(ticker.stock);
+		TradeJournal journal = this.journal;
+		if(journal != null) {
+			try {
+				journal.append(ticker);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		update(book.ticker, ticker);
+	}
+	
+	private static void update(Ticker registered, Ticker ticker) {
+		registered.setLastDividend(ticker.getLastDividend());
+		if(ticker.getFixedDividend() != null) {
+			registered.setFixedDividend(ticker.getFixedDividend());
+		}
+		registered.setParValue(ticker.getParValue());
+	}
+	
+	private boolean register(Ticker ticker) {
+		if(!books.putIfAbsent(new StockBook(ticker, precisionPolicy))) {
+			return false;
+		}
+		ticker.setPrecisionPolicy(precisionPolicy);
+		return true;
 	}
 	
 	/**
   	 * Record a trade to the market @see {@link Trade}
   	 * @param trade the trade to be recorded
   	 * @throws TickerNotFoundException if the stock has not a ticker associated
+  	 * @throws UncheckedIOException if the trade could not be appended to the journal, in which case it is not 
+  	 * recorded, or if the trades evicted by the retention policy could not be archived, in which case the trade 
+  	 * is recorded anyway and the expired trades are retained until the next eviction
+  	 * @throws LateTradeException if the trade is late and the watermark policy rejects late trades
+  	 * @throws ArithmeticException if the price x quantity product of the trade overflows the fixed-point
+  	 * representation of the market, in which case it is not recorded
   	 */
 	public void recordTrade(Trade trade) throws TickerNotFoundException {
-		Ticker ticker = tickersByStock.get(trade.stock);
-		if(ticker == null) {
-			throw new TickerNotFoundException(trade.stock);
+		StockBook book = validate(trade, 1);
+		ReorderBuffer reorderBuffer = this.reorderBuffer;
+		if(reorderBuffer != null) {
+			recordInEventTime(reorderBuffer, new Trade[] {trade});
+			return;
+		}
+		TradeJournal journal = this.journal;
+		if(journal != null) {
+			try {
+				journal.append(trade);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
 		}
-		ticker.setTickerPrice(trade.price);
+		book.add(trade);
 		trades.add(trade);
+		allShareIndex.markDirty(book);
+		publish(trade.stock);
+		ExchangeMetrics metrics = this.metrics;
+		if(metrics != null) {
+			metrics.tradesRecorded(1);
+			metrics.tradeIngested(trade.timestamp.toEpochMilli(), clock.millis());
+		}
+		evictExpiredTrades();
+		publishSnapshotIfDue();
+	}
+	
+	/**
+  	 * Record a batch of trades to the market. The trades are grouped by stock and each group is applied in one 
+  	 * pass, the ticker price of each stock being set once, to the price of its latest trade in time.
+  	 * The batch is validated first: if any trade has no ticker associated, no trade of the batch is recorded.
+  	 * @param trades the trades to be recorded
+  	 * @throws TickerNotFoundException if the stock of a trade has not a ticker associated
+  	 * @throws UncheckedIOException if the trades evicted by the retention policy could not be archived, in which
+  	 * case the batch is recorded anyway and the expired trades are retained until the next eviction
+  	 * @throws LateTradeException if a trade is late and the watermark policy rejects late trades, in which case no
+  	 * trade of the batch is recorded
+  	 * @throws ArithmeticException if the price x quantity product of a trade overflows the fixed-point 
+  	 * representation of the market, in which case no trade of the batch is recorded
+  	 */
+	public void recordTrades(Collection<Trade> trades) throws TickerNotFoundException {
+		recordTrades(trades.toArray(new Trade[trades.size()]));
+	}
+	
+	/**
+  	 * Record a columnar batch of trades to the market, see {@link #recordTrades(Collection)}. The batch is 
+  	 * validated first: if any row does not hold a valid trade, or has no ticker associated, no trade of the
+  	 * batch is recorded. The trades are journaled, added to the books and stored straight from the columns of 
+  	 * the batch, no trade object is created, unless a watermark policy is set, the reorder buffer holding trade
+  	 * objects.
+  	 * @param batch the trades to be recorded
+  	 * @throws TickerNotFoundException if the stock of a trade has not a ticker associated
+  	 * @throws IllegalArgumentException if a row of the batch does not hold a valid trade
+  	 * @throws ArithmeticException if the price x quantity product of a trade overflows the fixed-point 
+  	 * representation of the market, in which case no trade of the batch is recorded
+  	 */
+	public void recordTrades(TradeBatch batch) throws TickerNotFoundException {
+		for(int row = 0; row < batch.size(); row++) {
+			validate(batch, row, batch.size());
+		}
+		ReorderBuffer reorderBuffer = this.reorderBuffer;
+		if(reorderBuffer != null) {
+			Trade[] trades = new Trade[batch.size()];
+			for(int row = 0; row < trades.length; row++) {
+				trades[row] = batch.getTrade(row);
+			}
+			recordInEventTime(reorderBuffer, trades);
+			return;
+		}
+		ingest(batch);
+		int[] rows = batch.rowsByStock();
+		for(int from = 0, to; from < rows.length; from = to) {
+			int stockId = batch.getStockId(rows[from]);
+			for(to = from + 1; to < rows.length && batch.getStockId(rows[to]) == stockId; to++);
+			Stock stock = batch.getStock(rows[from]);
+			StockBook book = getBook(stock);
+			book.addAll(batch, rows, from, to);
+			allShareIndex.markDirty(book);
+			publish(stock);
+		}
+		trades.addAll(batch, rows);
+		applied(rows.length);
+	}
+	
+	private void recordTrades(Trade[] batch) throws TickerNotFoundException {
+		for(Trade trade: batch) {
+			validate(trade, batch.length);
+		}
+		ReorderBuffer reorderBuffer = this.reorderBuffer;
+		if(reorderBuffer != null) {
+			recordInEventTime(reorderBuffer, batch);
+			return;
+		}
+		ingest(batch);
+		applyTrades(batch);
+	}
+	
+	/**
+  	 * Validate a trade before it gets journaled or recorded anywhere: its stock must have a ticker associated and
+  	 * its price x quantity product must fit the fixed-point representation of the market, if any, so that no 
+  	 * structure of the market ends up holding a trade the others have not seen.
+  	 * @param trade the trade
+  	 * @param rejected the number of trades rejected if the trade is not valid
+  	 * @return the book of the stock of the trade
+  	 */
+	StockBook validate(Trade trade, int rejected) throws TickerNotFoundException {
+		StockBook book = books.get(trade.stock);
+		try {
+			if(book == null) {
+				throw new TickerNotFoundException(trade.stock);
+			}
+			FixedPoint fixedPoint = precisionPolicy.fixedPoint;
+			if(fixedPoint != null) {
+				Accumulator.notionalOf(trade, fixedPoint);
+			}
+		} catch (TickerNotFoundException | ArithmeticException e) {
+			ExchangeMetrics metrics = this.metrics;
+			if(metrics != null) {
+				metrics.tradesRejected(rejected);
+			}
+			throw e;
+		}
+		return book;
+	}
+	
+	/**
+  	 * Validate a row of a columnar batch of trades, see {@link #validate(Trade, int)}.
+  	 * @param batch the batch
+  	 * @param row the row of the trade
+  	 * @param rejected the number of trades rejected if the trade is not valid
+  	 * @throws IllegalArgumentException if the row does not hold a valid trade
+  	 */
+	void validate(TradeBatch batch, int row, int rejected) throws TickerNotFoundException {
+		int quantity = batch.getSharesQuantity(row);
+		long ticks = batch.getPriceTicks(row);
+		Validate.isTrue(quantity > 0 && ticks > 0, "Not a valid trade at row ", row);
+		Stock stock = batch.getStock(row);
+		try {
+			if(books.get(stock) == null) {
+				throw new TickerNotFoundException(stock);
+			}
+			FixedPoint fixedPoint = precisionPolicy.fixedPoint;
+			if(fixedPoint != null) {
+				Accumulator.notionalOf(quantity, ticks, batch.priceScale, fixedPoint);
+			}
+		} catch (TickerNotFoundException | ArithmeticException e) {
+			ExchangeMetrics metrics = this.metrics;
+			if(metrics != null) {
+				metrics.tradesRejected(rejected);
+			}
+			throw e;
+		}
+	}
+	
+	/**
+  	 * Journal a batch of trades validated and report their ingestion lag.
+  	 */
+	private void ingest(Trade[] batch) {
+		TradeJournal journal = this.journal;
+		if(journal != null) {
+			try {
+				journal.appendAll(batch);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		ExchangeMetrics metrics = this.metrics;
+		if(metrics != null) {
+			long now = clock.millis();
+			for(Trade trade: batch) {
+				metrics.tradeIngested(trade.timestamp.toEpochMilli(), now);
+			}
+		}
+	}
+	
+	/**
+  	 * Journal a columnar batch of trades validated and report their ingestion lag.
+  	 */
+	private void ingest(TradeBatch batch) {
+		TradeJournal journal = this.journal;
+		if(journal != null) {
+			try {
+				journal.appendAll(batch);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		ExchangeMetrics metrics = this.metrics;
+		if(metrics != null) {
+			long now = clock.millis();
+			for(int row = 0; row < batch.size(); row++) {
+				metrics.tradeIngested(Math.floorDiv(batch.getEpochNanos(row), 1_000_000L), now);
+			}
+		}
+	}
+	
+	/**
+  	 * Add a batch of trades validated to the reorder buffer and apply the trades the watermark has passed. The
+  	 * trades are applied while holding the buffer, so that they are applied in time order whatever the number of
+  	 * threads recording trades.
+  	 */
+	private void recordInEventTime(ReorderBuffer reorderBuffer, Trade[] batch) throws TickerNotFoundException {
+		synchronized(reorderBuffer) {
+			int late = 0;
+			for(Trade trade: batch) {
+				if(reorderBuffer.isLate(trade)) {
+					late++;
+				}
+			}
+			if(late > 0) {
+				ExchangeMetrics metrics = this.metrics;
+				if(metrics != null) {
+					metrics.tradesLate(late);
+				}
+				if(reorderBuffer.policy.rejectLate) {
+					throw new LateTradeException(late, reorderBuffer.getWatermark());
+				}
+				Trade[] accepted = new Trade[batch.length - late];
+				for(int i = 0, j = 0; i < batch.length; i++) {
+					if(!reorderBuffer.isLate(batch[i])) {
+						accepted[j++] = batch[i];
+					}
+				}
+				batch = accepted;
+			}
+			ingest(batch);
+			for(Trade trade: batch) {
+				reorderBuffer.add(trade);
+			}
+			Trade[] released = reorderBuffer.release();
+			if(released.length > 0) {
+				applyTrades(released);
+			}
+		}
+	}
+	
+	private void applyTrades(Trade[] batch) throws TickerNotFoundException {
+		Arrays.sort(batch, BY_STOCK_ID); // stable, the trades of a stock stay in batch order
+		for(int from = 0, to; from < batch.length; from = to) {
+			Stock stock = batch[from].stock;
+			for(to = from + 1; to < batch.length && batch[to].stock == stock; to++);
+			StockBook book = getBook(stock);
+			book.addAll(batch, from, to);
+			allShareIndex.markDirty(book);
+			publish(stock);
+		}
+		trades.addAll(batch);
+		applied(batch.length);
+	}
+	
+	private void applied(int count) {
+		ExchangeMetrics metrics = this.metrics;
+		if(metrics != null) {
+			metrics.tradesRecorded(count);
+		}
+		evictExpiredTrades();
+		publishSnapshotIfDue();
+	}
+	
+	private void evictExpiredTrades() {
+		RetentionPolicy retentionPolicy = this.retentionPolicy;
+		if(retentionPolicy != null) {
+			Instant last = trades.last();
+			if(last == null) {
+				return;
+			}
+			Instant horizon = last.minus(retentionPolicy.horizon);
+			Instant first = trades.first();
+			if(first != null && first.isBefore(horizon.minus(retentionPolicy.batchPeriod)) && evictionLock.tryLock()) {
+				try {
+					evictTrades(retentionPolicy, horizon);
+				} finally {
+					evictionLock.unlock();
+				}
+			}
+		}
+	}
+	
+	/**
+  	 * Set the policy bounding the trades retained by the market. Trades past the horizon are evicted in batches 
+  	 * while new trades are recorded.
+  	 * @param retentionPolicy the retention policy, or null to retain all the trades
+  	 */
+	public void setRetentionPolicy(RetentionPolicy retentionPolicy) {
+		this.retentionPolicy = retentionPolicy;
+	}
+	
+	public RetentionPolicy getRetentionPolicy() {
+		return retentionPolicy;
+	}
+	
+	/**
+  	 * Set the journal the registered tickers and the recorded trades are appended to, before being applied to
+  	 * the market. The market state can be rebuilt from the journal after a restart, see 
+  	 * {@link #replay(TradeJournal)}.
+  	 * @param journal the journal, or null to stop journaling
+  	 */
+	public void setJournal(TradeJournal journal) {
+		this.journal = journal;
+	}
+	
+	public TradeJournal getJournal() {
+		return journal;
+	}
+	
+	/**
+  	 * Set the metrics the trades recorded, rejected and evicted and the latency of the price and index queries 
+  	 * are reported to. Without metrics, the market does not pay for any measurement.
+  	 * @param metrics the metrics, or null to stop measuring
+  	 */
+	public void setMetrics(ExchangeMetrics metrics) {
+		this.metrics = metrics;
+	}
+	
+	public ExchangeMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+  	 * Set the policy of the event-time ingestion of the market. Trades are then held in a reorder buffer until the
+  	 * watermark has passed them, and applied in time order, while late trades are rejected or dropped. The trades
+  	 * are journaled when they arrive. Any trade held by the previous reorder buffer is applied first.
+  	 * @param watermarkPolicy the watermark policy, or null to apply trades as they arrive
+  	 */
+	public void setWatermarkPolicy(WatermarkPolicy watermarkPolicy) {
+		ReorderBuffer previous;
+		synchronized(lock) {
+			previous = reorderBuffer;
+			reorderBuffer = watermarkPolicy == null ? null : new ReorderBuffer(watermarkPolicy);
+		}
+		if(previous != null) {
+			synchronized(previous) {
+				Trade[] released = previous.close();
+				if(released.length > 0) {
+					applyReleasedTrades(released);
+				}
+			}
+		}
+	}
+	
+	public WatermarkPolicy getWatermarkPolicy() {
+		ReorderBuffer reorderBuffer = this.reorderBuffer;
+		return reorderBuffer == null ? null : reorderBuffer.policy;
+	}
+	
+	/**
+  	 * @return the watermark of the event-time ingestion, or null if there is no watermark policy or no trade has
+  	 * been recorded since it has been set
+  	 */
+	public Instant getWatermark() {
+		ReorderBuffer reorderBuffer = this.reorderBuffer;
+		if(reorderBuffer == null) {
+			return null;
+		}
+		synchronized(reorderBuffer) {
+			return reorderBuffer.getWatermark();
+		}
+	}
+	
+	/**
+  	 * Apply all the trades held by the reorder buffer, typically when the feed goes idle, moving the watermark
+  	 * forward to the latest of them: trades older than that are late from then on.
+  	 * @return the number of trades applied
+  	 */
+	public int flushReorderBuffer() {
+		ReorderBuffer reorderBuffer = this.reorderBuffer;
+		if(reorderBuffer == null) {
+			return 0;
+		}
+		synchronized(reorderBuffer) {
+			Trade[] released = reorderBuffer.releaseAll();
+			if(released.length > 0) {
+				applyReleasedTrades(released);
+			}
+			return released.length;
+		}
+	}
+	
+	private void applyReleasedTrades(Trade[] released) {
+		try {
+			applyTrades(released);
+		} catch (TickerNotFoundException e) {
+			throw new IllegalStateException(e); //not expected, the trades have been validated when they arrived
+		}
+	}
+	
+	/**
+  	 * Rebuild the market state from a journal, typically before setting it as the journal of this market. The 
+  	 * tickers are registered, or updated if they have already been registered, and the trades are recorded in 
+  	 * batches, without being journaled again. When a retention policy is set, the trades past its horizon from 
+  	 * the latest trade of the journal are skipped, without being archived.
+  	 * @param journal the journal
+  	 * @return the number of trades recorded
+  	 * @throws IOException if the journal could not be read
+  	 * @throws TickerNotFoundException if the journal has a trade of a stock which has not a ticker associated
+  	 */
+	public int replay(TradeJournal journal) throws IOException, TickerNotFoundException {
+		RetentionPolicy retentionPolicy = this.retentionPolicy;
+		Instant last = journal.getLastTradeTimestamp();
+		JournalReplay replay = new JournalReplay();
+		journal.replay(retentionPolicy == null || last == null ? null : last.minus(retentionPolicy.horizon), replay);
+		replay.flush();
+		return replay.count;
+	}
+	
+	private class JournalReplay implements TradeJournal.Replay {
+		private final Trade[] batch = new Trade[4096];
+		private int size;
+		private int count;
+		
+		@Override
+		public void ticker(Ticker ticker) {
+			StockBook book = books.get(ticker.stock);
+			if(book == null && register(ticker)) {
+				return;
+			}
+			update(books.get(ticker.stock).ticker, ticker);
+		}
+		
+		@Override
+		public void trade(Trade trade) throws TickerNotFoundException {
+			batch[size++] = trade;
+			if(size == batch.length) {
+				flush();
+			}
+		}
+		
+		@Override
+		public void tickerPrice(Stock stock, Instant timestamp, BigDecimal price) {
+			StockBook book = books.get(stock);
+			if(book != null) {
+				book.restoreTickerPrice(timestamp, price);
+			}
+		}
+		
+		void flush() throws TickerNotFoundException {
+			Trade[] trades = size == batch.length ? batch : Arrays.copyOf(batch, size);
+			for(Trade trade: trades) {
+				getBook(trade.stock);
+			}
+			applyTrades(trades);
+			count += size;
+			size = 0;
+		}
+	}
+	
+	/**
+  	 * Evict all the trades past the horizon of the retention policy, regardless of the batch period.
+  	 * @return the number of trades evicted
+  	 * @throws UncheckedIOException if the evicted trades could not be archived
+  	 */
+	public int evictTrades() {
+		RetentionPolicy retentionPolicy = this.retentionPolicy;
+		Instant last = trades.last();
+		if(retentionPolicy == null || last == null) {
+			return 0;
+		}
+		evictionLock.lock();
+		try {
+			return evictTrades(retentionPolicy, last.minus(retentionPolicy.horizon));
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+	
+	private int evictTrades(RetentionPolicy retentionPolicy, Instant horizon) {
+		try {
+			int count = trades.evict(horizon, retentionPolicy.archive);
+			ExchangeMetrics metrics = this.metrics;
+			if(metrics != null) {
+				metrics.tradesEvicted(count);
+			}
+			return count;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
 	}
 	
 	public static class NotEnoughDataPointsException extends Exception {
@@ -186,6 +1263,18 @@ public class StockExchange {
 		}
 	}
 	
+	/**
+  	 * Thrown when trades older than the watermark are recorded, under a watermark policy rejecting late trades.
+  	 * It is unchecked, like the other rejections of invalid trades.
+  	 */
+	public static class LateTradeException extends IllegalArgumentException {
+		private static final long serialVersionUID = -4521906832409136705L;
+		
+		public LateTradeException(int count, Instant watermark) {
+			super(String.format("%d trade(s) older than the watermark %s", count, watermark));
+		}
+	}
+	
 	public static class DuplicateTickerException extends Exception {
 		private static final long serialVersionUID = 3295016287272659323L;
 
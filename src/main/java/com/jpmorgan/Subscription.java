@@ -0,0 +1,107 @@
+package com.jpmorgan;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.jpmorgan.model.OptionalDecimal;
+import com.jpmorgan.model.Stock;
+
+/**
+ * Subscription of a {@link MarketListener} to a {@link StockExchange}. Recording a trade only marks its stock
+ * as pending and, unless a delivery is already scheduled, schedules one on the executor of the subscription.
+ * The delivery reads the latest values of the pending stocks, so that the pending updates are bounded by the 
+ * number of stocks whatever the pace of the listener, and a slow listener never holds the recording threads up.
+ * An exception thrown by the listener is contained in the delivery and counted by the metrics of the market, if
+ * any, so that it never escapes a thread recording trades, and the remaining updates are still delivered.
+ * @author bdinos
+ */
+public final class Subscription {
+	private final StockExchange stockExchange;
+	private final MarketListener listener;
+	private final Executor executor;
+	private final Set<Stock> pendingStocks = ConcurrentHashMap.newKeySet();
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private volatile boolean indexPending;
+	private volatile boolean cancelled;
+
+	Subscription(StockExchange stockExchange, MarketListener listener, Executor executor) {
+		this.stockExchange = stockExchange;
+		this.listener = listener;
+		this.executor = executor;
+	}
+
+	/**
+  	 * Mark a stock as pending, after trades of it have been recorded.
+  	 * @param stock the stock
+  	 */
+	void markPending(Stock stock) {
+		pendingStocks.add(stock);
+		indexPending = true;
+		schedule();
+	}
+
+	private void schedule() {
+		if(!cancelled && scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(this::deliver);
+			} catch (RejectedExecutionException e) {
+				// the executor has been shut down, there is no way to deliver the updates any more
+				cancel();
+			}
+		}
+	}
+
+	private void deliver() {
+		try {
+			for(Stock stock: pendingStocks) {
+				pendingStocks.remove(stock);
+				if(cancelled) {
+					return;
+				}
+				try {
+					listener.onStockUpdate(stockExchange.getStockUpdate(stock));
+				} catch (RuntimeException e) {
+					listenerFailed();
+				}
+			}
+			if(indexPending && !cancelled) {
+				indexPending = false;
+				OptionalDecimal index = stockExchange.findGBCEAllShareIndex();
+				if(index.isPresent()) {
+					try {
+						listener.onIndexUpdate(index.get());
+					} catch (RuntimeException e) {
+						listenerFailed();
+					}
+				}
+			}
+		} finally {
+			scheduled.set(false);
+			if(!pendingStocks.isEmpty() || indexPending) {
+				schedule();
+			}
+		}
+	}
+
+	private void listenerFailed() {
+		ExchangeMetrics metrics = stockExchange.getMetrics();
+		if(metrics != null) {
+			metrics.listenerFailed();
+		}
+	}
+
+	/**
+  	 * Stop the delivery of updates. An update being delivered may still complete.
+  	 */
+	public void cancel() {
+		cancelled = true;
+		stockExchange.unsubscribe(this);
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
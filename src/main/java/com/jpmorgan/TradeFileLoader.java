@@ -0,0 +1,542 @@
+package com.jpmorgan;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.lang.Validate;
+
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.Trade.TradeIndicator;
+import com.jpmorgan.model.TradeBatch;
+
+/**
+ * Bulk loader of trade files into a {@link StockExchange}, for backfilling historical days. Two formats are read:
+ * <ul>
+ * <li>CSV, the format of {@link com.jpmorgan.archive.FileTradeArchive}: one trade per line with the comma
+ * separated fields <code>timestamp,symbol,indicator,quantity,price</code>, the time stamp in the ISO-8601 format
+ * of <code>Instant.toString()</code>;</li>
+ * <li>binary, written by {@link #writeBinary(Path, TradeBatch)}: a header holding the price scale and the stocks
+ * of the file, followed by fixed-width records of 25 bytes.</li>
+ * </ul>
+ * The file is memory-mapped and split into chunks parsed in parallel on a fork-join pool, each chunk straight
+ * into the primitive columns of a {@link TradeBatch}, sorted by time, without any object per trade. Each chunk is
+ * recorded in file order as soon as it has been parsed, a bounded number of chunks being parsed ahead, so that the
+ * memory held does not grow with the size of the file. A file ordered by time, as archives are, is recorded in
+ * time order; the trades of a chunk performed before those of the chunks preceding it are recorded as late trades.
+ * The batches are recorded from their columns, see {@link StockExchange#recordTrades(TradeBatch)}: the time to
+ * load a file grows linearly with its number of trades.
+ * @author bdinos
+ */
+public final class TradeFileLoader {
+	/** The number of bytes parsed by each task. */
+	public static final int CHUNK_SIZE = 8 << 20;
+
+	/** The longest CSV line accepted, bounding the search for the line a chunk starts at. */
+	private static final int MAX_LINE_LENGTH = 256;
+
+	private static final int MAGIC = 0x53535346; // SSSF
+	private static final int VERSION = 1;
+	private static final int RECORD_SIZE = 8 + 4 + 1 + 4 + 8;
+	private static final TradeIndicator[] INDICATORS = TradeIndicator.values();
+
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	/**
+  	 * Constructor of a loader parsing on the common fork-join pool.
+  	 */
+	public TradeFileLoader() {
+		this(ForkJoinPool.commonPool());
+	}
+
+	/**
+  	 * Constructor.
+  	 * @param pool the pool the chunks are parsed on
+  	 */
+	public TradeFileLoader(ForkJoinPool pool) {
+		this(pool, CHUNK_SIZE);
+	}
+
+	TradeFileLoader(ForkJoinPool pool, int chunkSize) {
+		Validate.notNull(pool);
+		Validate.isTrue(chunkSize >= MAX_LINE_LENGTH);
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+  	 * Load a CSV trade file. The stocks of the file must have been registered, see {@link Stock#register}.
+  	 * @param path the file
+  	 * @param priceScale the scale the prices are held in, prices having more decimal digits are rejected
+  	 * @param stockExchange the market the trades are recorded to
+  	 * @return the number of trades recorded
+  	 * @throws IOException if the file could not be read, or a line does not hold a valid trade, in which case the
+  	 * trades of the chunks before it may have been recorded already, no trade of its chunk or after it is
+  	 * @throws TickerNotFoundException if the stock of a trade has not a ticker associated, in which case the 
+  	 * trades of the chunks before it may have been recorded already, no trade of its chunk or after it is
+  	 */
+	public long loadCsv(Path path, int priceScale, StockExchange stockExchange) throws IOException, TickerNotFoundException {
+		Validate.isTrue(priceScale >= 0 && priceScale <= 18);
+		SymbolTable symbols = new SymbolTable(Stock.values());
+		List<Callable<TradeBatch>> tasks = new ArrayList<>();
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			for(long start = 0, end; start < size; start = end) {
+				end = lineEnd(channel, Math.min(size, start + chunkSize), size);
+				ByteBuffer chunk = channel.map(MapMode.READ_ONLY, start, end - start);
+				long offset = start;
+				tasks.add(() -> new CsvChunk(chunk, offset, priceScale, symbols).parse());
+			}
+			return load(tasks, stockExchange);
+		}
+	}
+
+	/**
+  	 * @return the position after the end of the line the given position falls in
+  	 */
+	private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+		if(position == size) {
+			return size;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_LENGTH);
+		channel.read(buffer, position - 1);
+		for(int i = 0; i < buffer.position(); i++) {
+			if(buffer.get(i) == '\n') {
+				return position + i;
+			}
+		}
+		if(position - 1 + buffer.position() == size) {
+			return size;
+		}
+		throw new IOException(String.format("Line longer than %d bytes at offset %d", MAX_LINE_LENGTH, position));
+	}
+
+	/**
+  	 * Load a binary trade file. The stocks of the file are registered, see {@link Stock#register}.
+  	 * @param path the file
+  	 * @param stockExchange the market the trades are recorded to
+  	 * @return the number of trades recorded
+  	 * @throws IOException if the file could not be read, or is not a valid trade file, in which case the trades
+  	 * of the chunks before the invalid record may have been recorded already, no trade of its chunk or after it is
+  	 * @throws TickerNotFoundException if the stock of a trade has not a ticker associated, in which case the 
+  	 * trades of the chunks before it may have been recorded already, no trade of its chunk or after it is
+  	 */
+	public long loadBinary(Path path, StockExchange stockExchange) throws IOException, TickerNotFoundException {
+		List<Callable<TradeBatch>> tasks = new ArrayList<>();
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			long size = channel.size();
+			ByteBuffer header = channel.map(MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+			Stock[] stocks;
+			int priceScale;
+			try {
+				if(header.getInt() != MAGIC || header.getInt() != VERSION) {
+					throw new IOException(String.format("%s is not a binary trade file", path));
+				}
+				priceScale = header.getInt();
+				stocks = new Stock[header.getInt()];
+				for(int i = 0; i < stocks.length; i++) {
+					byte[] symbol = new byte[header.get() & 0xFF];
+					header.get(symbol);
+					stocks[i] = Stock.register(new String(symbol, StandardCharsets.US_ASCII), Stock.Type.values()[header.get()]);
+				}
+			} catch (RuntimeException e) {
+				throw new IOException(String.format("%s has an invalid header", path), e);
+			}
+			long recordsOffset = header.position();
+			if((size - recordsOffset) % RECORD_SIZE != 0) {
+				throw new IOException(String.format("%s is truncated", path));
+			}
+			long records = (size - recordsOffset) / RECORD_SIZE;
+			int recordsPerChunk = chunkSize / RECORD_SIZE;
+			for(long first = 0; first < records; first += recordsPerChunk) {
+				int count = (int) Math.min(recordsPerChunk, records - first);
+				ByteBuffer chunk = channel.map(MapMode.READ_ONLY, recordsOffset + first * RECORD_SIZE, (long) count * RECORD_SIZE);
+				long offset = recordsOffset + first * RECORD_SIZE;
+				tasks.add(() -> parseBinary(chunk, offset, priceScale, stocks));
+			}
+			return load(tasks, stockExchange);
+		}
+	}
+
+	private static TradeBatch parseBinary(ByteBuffer chunk, long offset, int priceScale, Stock[] stocks) throws IOException {
+		int count = chunk.limit() / RECORD_SIZE;
+		TradeBatch batch = new TradeBatch(priceScale, Math.max(1, count));
+		for(int i = 0; i < count; i++) {
+			int position = i * RECORD_SIZE;
+			long epochNanos = chunk.getLong(position);
+			int stock = chunk.getInt(position + 8);
+			byte indicator = chunk.get(position + 12);
+			if(stock < 0 || stock >= stocks.length || indicator < 0 || indicator >= INDICATORS.length) {
+				throw new IOException(String.format("Invalid trade record at offset %d", offset + position));
+			}
+			batch.add(epochNanos, stocks[stock], INDICATORS[indicator], chunk.getInt(position + 13), chunk.getLong(position + 17));
+		}
+		batch.sortByTime();
+		return batch;
+	}
+
+	/**
+  	 * Write a batch of trades to a binary trade file, which is replaced if it exists.
+  	 * @param path the file
+  	 * @param batch the trades
+  	 * @throws IOException if the file could not be written
+  	 */
+	public static void writeBinary(Path path, TradeBatch batch) throws IOException {
+		List<Stock> stocks = new ArrayList<>();
+		int[] indexesById = new int[Stock.count()];
+		for(int row = 0; row < batch.size(); row++) {
+			Stock stock = batch.getStock(row);
+			if(indexesById[stock.id] == 0) {
+				stocks.add(stock);
+				indexesById[stock.id] = stocks.size(); // index in the file + 1
+			}
+		}
+		try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(batch.priceScale).putInt(stocks.size());
+			for(Stock stock: stocks) {
+				byte[] symbol = stock.symbol.getBytes(StandardCharsets.US_ASCII);
+				Validate.isTrue(symbol.length <= 0xFF, "Symbol too long: ", stock.symbol);
+				reserve(channel, buffer, 2 + symbol.length);
+				buffer.put((byte) symbol.length).put(symbol).put((byte) stock.type.ordinal());
+			}
+			for(int row = 0; row < batch.size(); row++) {
+				reserve(channel, buffer, RECORD_SIZE);
+				buffer.putLong(batch.getEpochNanos(row))
+					.putInt(indexesById[batch.getStock(row).id] - 1)
+					.put((byte) batch.getTradeIndicator(row).ordinal())
+					.putInt(batch.getSharesQuantity(row))
+					.putLong(batch.getPriceTicks(row));
+			}
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private static void reserve(FileChannel channel, ByteBuffer buffer, int size) throws IOException {
+		if(buffer.remaining() < size) {
+			buffer.flip();
+			while(buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			buffer.clear();
+		}
+	}
+
+	/**
+  	 * Run the parsing tasks on the pool, recording the batch of each task in file order as soon as it has been
+  	 * parsed. At most two tasks per thread of the pool are run ahead of the batch being recorded.
+  	 * @return the number of trades recorded
+  	 */
+	private long load(List<Callable<TradeBatch>> tasks, StockExchange stockExchange) throws IOException, TickerNotFoundException {
+		int ahead = Math.max(2, 2 * pool.getParallelism());
+		ArrayDeque<Future<TradeBatch>> parsing = new ArrayDeque<>(ahead);
+		Iterator<Callable<TradeBatch>> next = tasks.iterator();
+		long count = 0;
+		try {
+			while(next.hasNext() || !parsing.isEmpty()) {
+				while(next.hasNext() && parsing.size() < ahead) {
+					// a future task, unlike the fork-join task of submit, throws back the checked exception of the task
+					FutureTask<TradeBatch> task = new FutureTask<>(next.next());
+					pool.execute(task);
+					parsing.add(task);
+				}
+				TradeBatch batch = parsed(parsing.poll());
+				if(batch.size() > 0) {
+					stockExchange.recordTrades(batch);
+					count += batch.size();
+				}
+			}
+		} finally {
+			for(Future<TradeBatch> future: parsing) {
+				future.cancel(true);
+			}
+		}
+		return count;
+	}
+
+	private static TradeBatch parsed(Future<TradeBatch> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw (RuntimeException) cause;
+		}
+	}
+
+	/**
+	 * Table of the registered stocks by symbol, looked up from the bytes of the symbol without decoding them.
+	 */
+	private static final class SymbolTable {
+		private final byte[][] symbols;
+		private final Stock[] stocks;
+		private final int mask;
+
+		SymbolTable(Stock[] stocks) {
+			int capacity = Integer.highestOneBit(Math.max(1, stocks.length) * 4);
+			this.symbols = new byte[capacity][];
+			this.stocks = new Stock[capacity];
+			this.mask = capacity - 1;
+			for(Stock stock: stocks) {
+				byte[] symbol = stock.symbol.getBytes(StandardCharsets.US_ASCII);
+				int slot = hash(symbol, 0, symbol.length) & mask;
+				while(symbols[slot] != null) {
+					slot = (slot + 1) & mask;
+				}
+				symbols[slot] = symbol;
+				this.stocks[slot] = stock;
+			}
+		}
+
+		/**
+	  	 * @return the stock of the symbol held by the given bytes, or null if there is none
+	  	 */
+		Stock find(ByteBuffer buffer, int from, int to) {
+			for(int slot = hash(buffer, from, to) & mask; symbols[slot] != null; slot = (slot + 1) & mask) {
+				if(matches(symbols[slot], buffer, from, to)) {
+					return stocks[slot];
+				}
+			}
+			return null;
+		}
+
+		private static boolean matches(byte[] symbol, ByteBuffer buffer, int from, int to) {
+			if(symbol.length != to - from) {
+				return false;
+			}
+			for(int i = 0; i < symbol.length; i++) {
+				if(symbol[i] != buffer.get(from + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static int hash(byte[] bytes, int from, int to) {
+			int hash = 0;
+			for(int i = from; i < to; i++) {
+				hash = 31 * hash + bytes[i];
+			}
+			return hash ^ (hash >>> 16);
+		}
+
+		private static int hash(ByteBuffer buffer, int from, int to) {
+			int hash = 0;
+			for(int i = from; i < to; i++) {
+				hash = 31 * hash + buffer.get(i);
+			}
+			return hash ^ (hash >>> 16);
+		}
+	}
+
+	/**
+	 * Parser of a chunk of a CSV trade file, made of whole lines.
+	 */
+	private static final class CsvChunk {
+		private static final long[] POWERS_OF_TEN = new long[19];
+		static {
+			POWERS_OF_TEN[0] = 1;
+			for(int i = 1; i < POWERS_OF_TEN.length; i++) {
+				POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+			}
+		}
+
+		private final ByteBuffer chunk;
+		private final long offset;
+		private final int priceScale;
+		private final SymbolTable symbols;
+		private int position;
+
+		CsvChunk(ByteBuffer chunk, long offset, int priceScale, SymbolTable symbols) {
+			this.chunk = chunk;
+			this.offset = offset;
+			this.priceScale = priceScale;
+			this.symbols = symbols;
+		}
+
+		TradeBatch parse() throws IOException {
+			int limit = chunk.limit();
+			TradeBatch batch = new TradeBatch(priceScale, Math.max(16, limit / 48));
+			while(position < limit) {
+				byte next = chunk.get(position);
+				if(next == '\n' || next == '\r') {
+					position++;
+					continue;
+				}
+				long epochNanos = parseTimestamp();
+				expect(',');
+				int from = position;
+				while(position < limit && chunk.get(position) != ',') {
+					position++;
+				}
+				Stock stock = symbols.find(chunk, from, position);
+				if(stock == null) {
+					throw malformed("unknown stock");
+				}
+				expect(',');
+				TradeIndicator indicator;
+				if(position < limit && chunk.get(position) == 'B') {
+					expect('B', 'U', 'Y');
+					indicator = TradeIndicator.BUY;
+				} else {
+					expect('S', 'E', 'L', 'L');
+					indicator = TradeIndicator.SELL;
+				}
+				expect(',');
+				long quantity = parseDigits(10);
+				if(quantity > Integer.MAX_VALUE) {
+					throw malformed("quantity out of range");
+				}
+				expect(',');
+				long priceTicks = parsePrice();
+				if(position < limit && chunk.get(position) == '\r') {
+					position++;
+				}
+				if(position < limit) {
+					expect('\n');
+				}
+				batch.add(epochNanos, stock, indicator, (int) quantity, priceTicks);
+			}
+			batch.sortByTime();
+			return batch;
+		}
+
+		/**
+	  	 * Parse a time stamp in the format of <code>Instant.toString()</code>, such as
+	  	 * <code>2016-03-01T10:15:30.250Z</code>, for years 0 to 9999.
+	  	 * @return the epoch nanoseconds
+	  	 */
+		private long parseTimestamp() throws IOException {
+			long year = parseDigits(4, 4);
+			expect('-');
+			long month = parseDigits(2, 2);
+			expect('-');
+			long day = parseDigits(2, 2);
+			expect('T');
+			long hour = parseDigits(2, 2);
+			expect(':');
+			long minute = parseDigits(2, 2);
+			expect(':');
+			long second = parseDigits(2, 2);
+			long nano = 0;
+			if(position < chunk.limit() && chunk.get(position) == '.') {
+				position++;
+				int from = position;
+				nano = parseDigits(9);
+				nano *= POWERS_OF_TEN[9 - (position - from)];
+			}
+			expect('Z');
+			if(month < 1 || month > 12 || day < 1 || day > YearMonth.of((int) year, (int) month).lengthOfMonth()
+					|| hour > 23 || minute > 59 || second > 59) {
+				throw malformed("invalid time stamp");
+			}
+			// days from the civil date, see http://howardhinnant.github.io/date_algorithms.html
+			long y = month <= 2 ? year - 1 : year;
+			long era = Math.floorDiv(y, 400);
+			long yearOfEra = y - era * 400;
+			long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+			long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+			long epochDay = era * 146097 + dayOfEra - 719468;
+			long epochSecond = epochDay * 86400 + hour * 3600 + minute * 60 + second;
+			try {
+				return Math.addExact(Math.multiplyExact(epochSecond, 1_000_000_000L), nano);
+			} catch (ArithmeticException e) {
+				throw malformed("time stamp out of range");
+			}
+		}
+
+		/**
+	  	 * Parse a positive decimal price into ticks of the price scale.
+	  	 */
+		private long parsePrice() throws IOException {
+			long ticks = parseDigits(18);
+			int decimals = 0;
+			try {
+				if(position < chunk.limit() && chunk.get(position) == '.') {
+					position++;
+					for(; position < chunk.limit() && isDigit(chunk.get(position)); position++) {
+						int digit = chunk.get(position) - '0';
+						if(decimals < priceScale) {
+							ticks = Math.addExact(Math.multiplyExact(ticks, 10), digit);
+							decimals++;
+						} else if(digit != 0) {
+							throw malformed("price with more decimal digits than the scale");
+						}
+					}
+				}
+				ticks = Math.multiplyExact(ticks, POWERS_OF_TEN[priceScale - decimals]);
+			} catch (ArithmeticException e) {
+				throw malformed("price out of range");
+			}
+			if(ticks == 0) {
+				throw malformed("price not positive");
+			}
+			return ticks;
+		}
+
+		private long parseDigits(int maxDigits) throws IOException {
+			return parseDigits(1, maxDigits);
+		}
+
+		private long parseDigits(int minDigits, int maxDigits) throws IOException {
+			long value = 0;
+			int digits = 0;
+			for(; position < chunk.limit() && isDigit(chunk.get(position)); position++) {
+				if(++digits > maxDigits) {
+					throw malformed("too many digits");
+				}
+				value = value * 10 + chunk.get(position) - '0';
+			}
+			if(digits < minDigits) {
+				throw malformed("digits expected");
+			}
+			return value;
+		}
+
+		private static boolean isDigit(byte b) {
+			return b >= '0' && b <= '9';
+		}
+
+		private void expect(char... expected) throws IOException {
+			for(char c: expected) {
+				if(position >= chunk.limit() || chunk.get(position) != c) {
+					throw malformed(String.format("'%s' expected", c == '\n' ? "\\n" : c));
+				}
+				position++;
+			}
+		}
+
+		private IOException malformed(String reason) {
+			return new IOException(String.format("Malformed trade at offset %d: %s", offset + position, reason));
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package com.jpmorgan;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.lang.Validate;
+
+import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.Ticker;
+import com.jpmorgan.model.Trade;
+import com.jpmorgan.model.Trade.TradeIndicator;
+import com.jpmorgan.model.TradeBatch;
+
+/**
+ * Append-only journal of the tickers and trades of a {@link StockExchange}, written to a memory-mapped file in a
+ * compact binary format, so that the state of the market can be rebuilt after a restart by
+ * {@link StockExchange#replay(TradeJournal)}. The file is mapped in regions of a fixed size, records never span
+ * two regions. A trade record takes 34 bytes: the stock is written once, and then referenced by its index in the
+ * journal. The type byte of a record is written last, so that a record cut short by a crash is never read.
+ * Appends are persisted by the operating system even if the process dies; {@link #flush()} forces them to the
+ * storage device.
+ * @author bdinos
+ */
+public final class TradeJournal implements Closeable {
+	public static final int DEFAULT_REGION_SIZE = 64 << 20;
+	public static final int MIN_REGION_SIZE = 1 << 20;
+
+	private static final int MAGIC = 0x5353534A; // SSSJ
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12; // magic, version, region size
+
+	private static final byte END = 0;
+	private static final byte STOCK = 1;
+	private static final byte TICKER = 2;
+	private static final byte TRADE = 3;
+	private static final byte PADDING = -1;
+
+	private static final int TRADE_SIZE = 1 + 4 + 8 + 4 + 1 + 4 + 8 + 4;
+	private static final TradeIndicator[] INDICATORS = TradeIndicator.values();
+
+	private final FileChannel channel;
+	private final int regionSize;
+	private MappedByteBuffer region;
+	private long regionOffset;
+
+	private final List<Stock> stocks = new ArrayList<>();
+	private int[] indexesById = new int[16]; // index in the journal + 1, 0 if the stock has not been written
+	private boolean hasTrades;
+	private long lastSecond;
+	private int lastNano;
+
+	/**
+  	 * Constructor of a journal mapped in regions of {@link #DEFAULT_REGION_SIZE} bytes.
+  	 * @param path the journal file, created if it does not exist
+  	 * @throws IOException if the file could not be opened, or is not a valid journal
+  	 */
+	public TradeJournal(Path path) throws IOException {
+		this(path, DEFAULT_REGION_SIZE);
+	}
+
+	/**
+  	 * Constructor. The stocks written in an existing journal are registered, see {@link Stock#register}.
+  	 * @param path the journal file, created if it does not exist
+  	 * @param regionSize the size of the regions a new file is mapped in, an existing file keeps its own
+  	 * @throws IOException if the file could not be opened, or is not a valid journal
+  	 */
+	public TradeJournal(Path path, int regionSize) throws IOException {
+		Validate.notNull(path);
+		Validate.isTrue(regionSize >= MIN_REGION_SIZE);
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if(channel.size() == 0) {
+				this.regionSize = regionSize;
+				map(0);
+				region.putInt(MAGIC).putInt(VERSION).putInt(regionSize);
+			} else {
+				MappedByteBuffer header = channel.size() < HEADER_SIZE ? null : channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+				if(header == null || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+					throw new IOException(String.format("%s is not a trade journal", path));
+				}
+				this.regionSize = header.getInt(8);
+				long end = read(Long.MAX_VALUE, null, null);
+				map(end - end % this.regionSize);
+				region.position((int) (end - regionOffset));
+			}
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		} catch (TickerNotFoundException e) {
+			throw new AssertionError(e); // not thrown without a replay callback
+		}
+	}
+
+	private void map(long offset) throws IOException {
+		region = channel.map(MapMode.READ_WRITE, offset, regionSize);
+		regionOffset = offset;
+	}
+
+	/**
+  	 * Make room for a record in the current region, moving on to the next region if needed.
+  	 * @return the position of the record in the current region
+  	 */
+	private int reserve(int size) throws IOException {
+		if(!channel.isOpen()) {
+			throw new ClosedChannelException();
+		}
+		if(region.remaining() < size) {
+			if(region.hasRemaining()) {
+				region.put(region.position(), PADDING);
+			}
+			region.force(); // the region is not mapped any more once the next one is
+			map(regionOffset + regionSize);
+		}
+		int position = region.position();
+		region.position(position + 1);
+		return position;
+	}
+
+	/**
+  	 * Append a ticker. It is called by the stock exchange when the ticker gets registered, and when its dividends
+  	 * or its par value get updated, see {@link StockExchange#updateTicker(Ticker)}, so that the update gets 
+  	 * replayed as well.
+  	 * @param ticker the ticker
+  	 * @throws IOException if the journal could not be extended, or has been closed
+  	 */
+	public synchronized void append(Ticker ticker) throws IOException {
+		int index = indexOf(ticker.stock);
+		byte[] lastDividend = unscaledBytesOf(ticker.getLastDividend());
+		byte[] fixedDividend = unscaledBytesOf(ticker.getFixedDividend());
+		byte[] parValue = unscaledBytesOf(ticker.getParValue());
+		int position = reserve(1 + 4 + 3 * (4 + 2) + lastDividend.length + fixedDividend.length + parValue.length);
+		region.putInt(index);
+		putDecimal(ticker.getLastDividend(), lastDividend);
+		putDecimal(ticker.getFixedDividend(), fixedDividend);
+		putDecimal(ticker.getParValue(), parValue);
+		region.put(position, TICKER);
+	}
+
+	private static byte[] unscaledBytesOf(BigDecimal decimal) {
+		byte[] bytes = decimal == null ? new byte[0] : decimal.unscaledValue().toByteArray();
+		Validate.isTrue(bytes.length <= Short.MAX_VALUE, "Decimal too large to be journaled");
+		return bytes;
+	}
+
+	private void putDecimal(BigDecimal decimal, byte[] unscaledBytes) {
+		region.putInt(decimal == null ? 0 : decimal.scale());
+		region.putShort((short) (decimal == null ? -1 : unscaledBytes.length));
+		region.put(unscaledBytes);
+	}
+
+	/**
+  	 * Append a trade.
+  	 * @param trade the trade
+  	 * @throws IOException if the journal could not be extended, or has been closed
+  	 */
+	public synchronized void append(Trade trade) throws IOException {
+		append(trade.stock, trade.timestamp.getEpochSecond(), trade.timestamp.getNano(), trade.tradeIndicator,
+				trade.sharesQuantity, trade.priceTicks, trade.priceScale);
+	}
+
+	private void append(Stock stock, long second, int nano, TradeIndicator tradeIndicator, int sharesQuantity, 
+			long priceTicks, int priceScale) throws IOException {
+		int index = indexOf(stock);
+		int position = reserve(TRADE_SIZE);
+		region.putInt(index)
+			.putLong(second)
+			.putInt(nano)
+			.put((byte) tradeIndicator.ordinal())
+			.putInt(sharesQuantity)
+			.putLong(priceTicks)
+			.putInt(priceScale);
+		region.put(position, TRADE);
+		if(!hasTrades || second > lastSecond || second == lastSecond && nano > lastNano) {
+			hasTrades = true;
+			lastSecond = second;
+			lastNano = nano;
+		}
+	}
+
+	/**
+  	 * Append a batch of trades.
+  	 * @param trades the trades
+  	 * @throws IOException if the journal could not be extended, or has been closed
+  	 */
+	synchronized void appendAll(Trade[] trades) throws IOException {
+		for(Trade trade: trades) {
+			append(trade);
+		}
+	}
+
+	/**
+  	 * Append a columnar batch of trades, in row order, without creating an object per trade.
+  	 * @param batch the trades
+  	 * @throws IOException if the journal could not be extended, or has been closed
+  	 */
+	synchronized void appendAll(TradeBatch batch) throws IOException {
+		for(int row = 0; row < batch.size(); row++) {
+			long nanos = batch.getEpochNanos(row);
+			append(batch.getStock(row), Math.floorDiv(nanos, 1_000_000_000L), (int) Math.floorMod(nanos, 1_000_000_000L),
+					batch.getTradeIndicator(row), batch.getSharesQuantity(row), batch.getPriceTicks(row), batch.priceScale);
+		}
+	}
+
+	/**
+  	 * @return the index of the stock in the journal, the stock being written first if it is not there yet
+  	 */
+	private int indexOf(Stock stock) throws IOException {
+		if(stock.id < indexesById.length && indexesById[stock.id] > 0) {
+			return indexesById[stock.id] - 1;
+		}
+		byte[] symbol = stock.symbol.getBytes(StandardCharsets.UTF_8);
+		Validate.isTrue(symbol.length <= Short.MAX_VALUE, "Symbol too long to be journaled");
+		int position = reserve(1 + 1 + 2 + symbol.length);
+		region.put((byte) stock.type.ordinal()).putShort((short) symbol.length).put(symbol);
+		region.put(position, STOCK);
+		return addStock(stock);
+	}
+
+	private int addStock(Stock stock) {
+		if(stock.id >= indexesById.length) {
+			indexesById = Arrays.copyOf(indexesById, Math.max(stock.id + 1, indexesById.length * 2));
+		}
+		stocks.add(stock);
+		indexesById[stock.id] = stocks.size();
+		return stocks.size() - 1;
+	}
+
+	/**
+  	 * @return the latest time stamp of the trades of the journal, or null if it has none
+  	 */
+	synchronized Instant getLastTradeTimestamp() {
+		return hasTrades ? Instant.ofEpochSecond(lastSecond, lastNano) : null;
+	}
+
+	/**
+  	 * Replay the journal. Trades performed before the given instant are skipped, but the ticker price of a stock
+  	 * whose trades have all been skipped is still replayed, from the latest of them in time, whatever their 
+  	 * order in the journal.
+  	 * @param from the instant the trades are replayed from, or null to replay all of them
+  	 * @param replay the callback the tickers and the trades are replayed to, in journal order
+  	 * @throws IOException if the journal could not be read
+  	 * @throws TickerNotFoundException if the callback got a trade of a stock which has no ticker
+  	 */
+	synchronized void replay(Instant from, Replay replay) throws IOException, TickerNotFoundException {
+		read(regionOffset + region.position(), from, replay);
+	}
+
+	/**
+  	 * Read the records of the journal, up to the given offset or to the first empty record. Without a callback,
+  	 * the stocks are registered and the latest trade time stamp is tracked.
+  	 * @return the offset of the end of the records: the offset of the first empty record, or the offset of the 
+  	 * next region if the last region is full
+  	 */
+	private long read(long end, Instant from, Replay replay) throws IOException, TickerNotFoundException {
+		long[] skippedTicks = new long[stocks.size()];
+		int[] skippedScales = new int[stocks.size()];
+		long[] skippedSeconds = new long[stocks.size()];
+		int[] skippedNanos = new int[stocks.size()];
+		boolean[] skipped = new boolean[stocks.size()];
+		boolean[] replayed = new boolean[stocks.size()];
+		long regionOffset = 0;
+		MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, regionOffset, regionSize);
+		buffer.position(HEADER_SIZE);
+		while(regionOffset + buffer.position() < end) {
+			if(!buffer.hasRemaining() || buffer.get(buffer.position()) == PADDING) {
+				if(regionOffset + regionSize >= channel.size()) {
+					buffer.position(buffer.limit()); // the records end with the last region
+					break;
+				}
+				regionOffset += regionSize;
+				buffer = channel.map(MapMode.READ_ONLY, regionOffset, regionSize);
+				continue;
+			}
+			byte type = buffer.get(buffer.position());
+			if(type == END) {
+				break;
+			}
+			buffer.get();
+			switch(type) {
+			case STOCK: {
+				Stock.Type stockType = Stock.Type.values()[buffer.get()];
+				byte[] symbol = new byte[buffer.getShort()];
+				buffer.get(symbol);
+				if(replay == null) {
+					addStock(Stock.register(new String(symbol, StandardCharsets.UTF_8), stockType));
+				}
+				break;
+			}
+			case TICKER: {
+				Stock stock = stocks.get(buffer.getInt());
+				BigDecimal lastDividend = getDecimal(buffer);
+				BigDecimal fixedDividend = getDecimal(buffer);
+				BigDecimal parValue = getDecimal(buffer);
+				if(replay != null) {
+					replay.ticker(fixedDividend == null ? new Ticker(stock, lastDividend, parValue) : new Ticker(stock, lastDividend, fixedDividend, parValue));
+				}
+				break;
+			}
+			case TRADE: {
+				int index = buffer.getInt();
+				long second = buffer.getLong();
+				int nano = buffer.getInt();
+				TradeIndicator tradeIndicator = INDICATORS[buffer.get()];
+				int sharesQuantity = buffer.getInt();
+				long priceTicks = buffer.getLong();
+				int priceScale = buffer.getInt();
+				if(replay == null) {
+					if(!hasTrades || second > lastSecond || second == lastSecond && nano > lastNano) {
+						hasTrades = true;
+						lastSecond = second;
+						lastNano = nano;
+					}
+				} else if(from != null && (second < from.getEpochSecond() || second == from.getEpochSecond() && nano < from.getNano())) {
+					if(!skipped[index] || second > skippedSeconds[index] || second == skippedSeconds[index] && nano >= skippedNanos[index]) {
+						skipped[index] = true;
+						skippedTicks[index] = priceTicks;
+						skippedScales[index] = priceScale;
+						skippedSeconds[index] = second;
+						skippedNanos[index] = nano;
+					}
+				} else {
+					replayed[index] = true;
+					Instant timestamp = Instant.ofEpochSecond(second, nano);
+					Stock stock = stocks.get(index);
+					replay.trade(tradeIndicator == TradeIndicator.BUY
+							? Trade.buy(timestamp, stock, sharesQuantity, priceTicks, priceScale)
+							: Trade.sell(timestamp, stock, sharesQuantity, priceTicks, priceScale));
+				}
+				break;
+			}
+			default:
+				throw new IOException(String.format("Corrupt journal record at offset %d", regionOffset + buffer.position() - 1));
+			}
+		}
+		if(replay != null) {
+			for(int i = 0; i < skipped.length; i++) {
+				if(skipped[i] && !replayed[i]) {
+					replay.tickerPrice(stocks.get(i), Instant.ofEpochSecond(skippedSeconds[i], skippedNanos[i]), 
+							BigDecimal.valueOf(skippedTicks[i], skippedScales[i]));
+				}
+			}
+		}
+		return Math.min(end, regionOffset + buffer.position());
+	}
+
+	private static BigDecimal getDecimal(MappedByteBuffer buffer) {
+		int scale = buffer.getInt();
+		short length = buffer.getShort();
+		if(length < 0) {
+			return null;
+		}
+		byte[] unscaledBytes = new byte[length];
+		buffer.get(unscaledBytes);
+		return new BigDecimal(new BigInteger(unscaledBytes), scale);
+	}
+
+	/**
+  	 * Force the records appended so far to the storage device. The regions filled before the current one have
+  	 * been forced when the journal moved on from them.
+  	 */
+	public synchronized void flush() {
+		region.force();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if(channel.isOpen()) {
+			flush();
+			channel.close();
+		}
+	}
+
+	/**
+  	 * Callback the records of a journal are replayed to.
+  	 */
+	interface Replay {
+		void ticker(Ticker ticker);
+
+		void trade(Trade trade) throws TickerNotFoundException;
+
+		/**
+  		 * Restore the ticker price of a stock whose trades have all been skipped, from the latest of them.
+  		 */
+		void tickerPrice(Stock stock, Instant timestamp, BigDecimal price);
+	}
+}
@@ -0,0 +1,639 @@
+package com.jpmorgan;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.StampedLock;
+
+import com.jpmorgan.StockExchange.Accumulator;
+import com.jpmorgan.archive.TradeArchive;
+import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.Trade;
+import com.jpmorgan.model.Trade.TradeIndicator;
+import com.jpmorgan.model.TradeBatch;
+
+/**
+ * Time-ordered store of the trades recorded by a {@link StockExchange}, partitioned by stock. The trades of each
+ * stock are held in a segment of columns of primitive values, one array per trade field, in a ring ordered by time
+ * stamp and then by arrival, so that trades performed at the same instant are all retained, in the order they have
+ * been recorded. A trade takes 25 bytes and no object: the garbage collector has nothing to trace, however many
+ * trades are retained.
+ * Range queries by time cost O(log n) plus the size of the range, and the trades of a range are accumulated
+ * without being materialized as objects. Appending a trade costs O(1); a trade arriving late is inserted at its
+ * place, which shifts the trades of its stock performed after it, a few contiguous spans of rows at a time. A batch
+ * is merged in one pass over the trades performed after its earliest trade of each stock, so that a batch in time
+ * order is appended in O(batch) whatever the number of trades retained.
+ * Every segment has a lock of its own: the writers of different stocks never contend, and readers use optimistic
+ * reads, falling back to a read lock of the segment only if a writer got in the way. The time stamps of the oldest
+ * and of the latest trades are tracked in atomic fields, read without any lock.
+ * @author bdinos
+ */
+final class TradeStore {
+	private static final TradeIndicator[] INDICATORS = TradeIndicator.values();
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final Comparator<Trade> BY_STOCK_ID = Comparator.comparingInt(trade -> trade.stock.id);
+	private static final Comparator<Trade> BY_TIMESTAMP = Comparator.comparing(trade -> trade.timestamp);
+
+	private volatile AtomicReferenceArray<Segment> segments = new AtomicReferenceArray<>(16);
+	/** The epoch nanoseconds of the oldest trade, <code>Long.MAX_VALUE</code> if there is none. */
+	private final AtomicLong firstNanos = new AtomicLong(Long.MAX_VALUE);
+	/** The epoch nanoseconds of the latest trade ever added, <code>Long.MIN_VALUE</code> if there is none. */
+	private final AtomicLong lastNanos = new AtomicLong(Long.MIN_VALUE);
+
+	/**
+  	 * Add a trade to the store.
+  	 * @param trade the trade to be added
+  	 * @throws ArithmeticException if the time stamp of the trade is not within the years 1677 to 2262, out of the
+  	 * range of long epoch nanoseconds
+  	 */
+	void add(Trade trade) {
+		long nanos = toEpochNanos(trade.timestamp);
+		segmentOf(trade.stock).insert(nanos, trade.sharesQuantity, trade.priceTicks, trade.priceScale,
+				(byte) trade.tradeIndicator.ordinal());
+		added(nanos, nanos);
+	}
+
+	/**
+  	 * Add a batch of trades to the store, taking the lock of each segment once. The trades of each stock are put
+  	 * in time order, and merged with the trades of the stock performed after the earliest of them, the trades
+  	 * already stored coming first at the same instant.
+  	 * @param trades the trades to be added, in arrival order
+  	 * @throws ArithmeticException if the time stamp of a trade is not within the years 1677 to 2262, in which
+  	 * case no trade is added
+  	 */
+	void addAll(Trade[] trades) {
+		if(trades.length == 0) {
+			return;
+		}
+		trades = trades.clone();
+		// stable, the trades of a stock performed at the same instant stay in arrival order
+		Arrays.sort(trades, BY_STOCK_ID.thenComparing(BY_TIMESTAMP));
+		Columns batch = new Columns(trades.length);
+		long earliest = Long.MAX_VALUE;
+		long latest = Long.MIN_VALUE;
+		for(int i = 0; i < trades.length; i++) {
+			Trade trade = trades[i];
+			long nanos = toEpochNanos(trade.timestamp);
+			batch.write(i, nanos, trade.sharesQuantity, trade.priceTicks, trade.priceScale, (byte) trade.tradeIndicator.ordinal());
+			earliest = Math.min(earliest, nanos);
+			latest = Math.max(latest, nanos);
+		}
+		for(int from = 0, to; from < trades.length; from = to) {
+			Stock stock = trades[from].stock;
+			for(to = from + 1; to < trades.length && trades[to].stock == stock; to++);
+			segmentOf(stock).merge(batch, from, to);
+		}
+		added(earliest, latest);
+	}
+
+	/**
+  	 * Add a columnar batch of trades to the store, read straight from its columns, see {@link #addAll(Trade[])}.
+  	 * @param batch the batch
+  	 * @param rows the rows of the batch, ordered by stock and then by time stamp, see 
+  	 * {@link TradeBatch#rowsByStock()}
+  	 */
+	void addAll(TradeBatch batch, int[] rows) {
+		if(rows.length == 0) {
+			return;
+		}
+		Columns columns = new Columns(rows.length);
+		long earliest = Long.MAX_VALUE;
+		long latest = Long.MIN_VALUE;
+		for(int i = 0; i < rows.length; i++) {
+			int row = rows[i];
+			long nanos = batch.getEpochNanos(row);
+			columns.write(i, nanos, batch.getSharesQuantity(row), batch.getPriceTicks(row), batch.priceScale, 
+					(byte) batch.getTradeIndicator(row).ordinal());
+			earliest = Math.min(earliest, nanos);
+			latest = Math.max(latest, nanos);
+		}
+		for(int from = 0, to; from < rows.length; from = to) {
+			int stockId = batch.getStockId(rows[from]);
+			for(to = from + 1; to < rows.length && batch.getStockId(rows[to]) == stockId; to++);
+			segmentOf(batch.getStock(rows[from])).merge(columns, from, to);
+		}
+		added(earliest, latest);
+	}
+
+	private void added(long earliest, long latest) {
+		if(earliest < firstNanos.get()) {
+			firstNanos.accumulateAndGet(earliest, Math::min);
+		}
+		if(latest > lastNanos.get()) {
+			lastNanos.accumulateAndGet(latest, Math::max);
+		}
+	}
+
+	private Segment find(Stock stock) {
+		AtomicReferenceArray<Segment> segments = this.segments;
+		return stock.id < segments.length() ? segments.get(stock.id) : null;
+	}
+
+	private Segment segmentOf(Stock stock) {
+		Segment segment = find(stock);
+		return segment != null ? segment : addSegment(stock);
+	}
+
+	private synchronized Segment addSegment(Stock stock) {
+		AtomicReferenceArray<Segment> segments = this.segments;
+		if(stock.id >= segments.length()) {
+			AtomicReferenceArray<Segment> grown = new AtomicReferenceArray<>(Math.max(stock.id + 1, segments.length() * 2));
+			for(int i = 0; i < segments.length(); i++) {
+				grown.set(i, segments.get(i));
+			}
+			this.segments = segments = grown;
+		}
+		segments.compareAndSet(stock.id, null, new Segment(stock));
+		return segments.get(stock.id);
+	}
+
+	/**
+  	 * @param from an instant
+  	 * @return the trades performed after the given instant, ordered by time stamp, then by stock id and then by
+  	 * arrival
+  	 */
+	List<Trade> after(Instant from) {
+		long nanos = clampToEpochNanos(from);
+		AtomicReferenceArray<Segment> segments = this.segments;
+		List<Trade> trades = new ArrayList<>();
+		for(int i = 0; i < segments.length(); i++) {
+			Segment segment = segments.get(i);
+			if(segment != null) {
+				trades.addAll(segment.after(nanos));
+			}
+		}
+		trades.sort(BY_TIMESTAMP); // stable, the trades of the segments stay in stock id order at the same instant
+		return trades;
+	}
+
+	/**
+  	 * @param stock a stock
+  	 * @param nanos epoch nanoseconds
+  	 * @return the epoch nanoseconds of the oldest trade of the stock performed after the given ones, or 
+  	 * <code>Long.MAX_VALUE</code> if there is none
+  	 */
+	long nextAfter(Stock stock, long nanos) {
+		Segment segment = find(stock);
+		return segment == null ? Long.MAX_VALUE : segment.nextAfter(nanos);
+	}
+
+	/**
+  	 * Accumulate the trades of a stock performed after <code>from</code> and before <code>to</code>, reading the
+  	 * columns of the range without materializing the trades.
+  	 * @param stock a stock
+  	 * @param from an instant
+  	 * @param to an instant, or null to accumulate all the trades performed after <code>from</code>
+  	 * @param accumulator the accumulator
+  	 */
+	void accumulate(Stock stock, Instant from, Instant to, Accumulator accumulator) {
+		Segment segment = find(stock);
+		if(segment != null) {
+			segment.accumulate(clampToEpochNanos(from), to == null ? Long.MAX_VALUE : clampToEpochNanos(to), accumulator);
+		}
+	}
+
+	/**
+  	 * Accumulate the trades performed after <code>from</code> and before <code>to</code>, each into the
+  	 * accumulator of its stock, see {@link #accumulate(Stock, Instant, Instant, Accumulator)}.
+  	 * @param from an instant
+  	 * @param to an instant
+  	 * @param accumulatorsById the accumulators indexed by stock id, the trades of stocks having none being skipped
+  	 */
+	void accumulateAll(Instant from, Instant to, Accumulator[] accumulatorsById) {
+		long fromNanos = clampToEpochNanos(from);
+		long toNanos = clampToEpochNanos(to);
+		AtomicReferenceArray<Segment> segments = this.segments;
+		for(int id = 0; id < accumulatorsById.length && id < segments.length(); id++) {
+			Segment segment = segments.get(id);
+			if(segment != null && accumulatorsById[id] != null) {
+				segment.accumulate(fromNanos, toNanos, accumulatorsById[id]);
+			}
+		}
+	}
+
+	/**
+  	 * @return the time stamp of the oldest trade, or null if the store is empty
+  	 */
+	Instant first() {
+		long nanos = firstNanos.get();
+		return nanos == Long.MAX_VALUE ? null : Instant.ofEpochSecond(0, nanos);
+	}
+
+	/**
+  	 * @return the time stamp of the latest trade ever added, or null if no trade has been added
+  	 */
+	Instant last() {
+		long nanos = lastNanos.get();
+		return nanos == Long.MIN_VALUE ? null : Instant.ofEpochSecond(0, nanos);
+	}
+
+	/**
+  	 * Remove the trades performed before the given instant, and hand them over to the archive. The trades are
+  	 * removed from each segment under its lock, and archived once all the locks have been released, so that
+  	 * trades are recorded while the archive runs. If the archive fails, the trades removed are put back.
+  	 * Evictions must not run concurrently.
+  	 * @param horizon an instant
+  	 * @param archive the archive the removed trades are handed over to, or null
+  	 * @return the number of trades removed
+  	 * @throws IOException if the trades could not be archived
+  	 */
+	int evict(Instant horizon, TradeArchive archive) throws IOException {
+		long nanos = clampToEpochNanos(horizon);
+		AtomicReferenceArray<Segment> segments = this.segments;
+		Columns[] expired = new Columns[segments.length()];
+		int count = 0;
+		// lowered back below, and by the trades added meanwhile, so that none of them gets overlooked
+		firstNanos.set(Long.MAX_VALUE);
+		try {
+			for(int i = 0; i < segments.length(); i++) {
+				Segment segment = segments.get(i);
+				if(segment == null) {
+					continue;
+				}
+				if(archive == null) {
+					count += segment.dropBefore(nanos);
+				} else {
+					expired[i] = segment.takeBefore(nanos);
+					count += expired[i] == null ? 0 : expired[i].length();
+				}
+			}
+			if(count > 0 && archive != null) {
+				List<Trade> trades = new ArrayList<>(count);
+				for(int i = 0; i < expired.length; i++) {
+					if(expired[i] != null) {
+						segments.get(i).materialize(expired[i], trades);
+					}
+				}
+				trades.sort(BY_TIMESTAMP);
+				try {
+					archive.archive(trades);
+				} catch (IOException | RuntimeException e) {
+					for(int i = 0; i < expired.length; i++) {
+						if(expired[i] != null) {
+							segments.get(i).merge(expired[i], 0, expired[i].length());
+						}
+					}
+					throw e;
+				}
+			}
+			return count;
+		} finally {
+			long first = Long.MAX_VALUE;
+			for(int i = 0; i < segments.length(); i++) {
+				Segment segment = segments.get(i);
+				if(segment != null) {
+					first = Math.min(first, segment.first);
+				}
+			}
+			firstNanos.accumulateAndGet(first, Math::min);
+		}
+	}
+
+	private static long toEpochNanos(Instant timestamp) {
+		return Math.addExact(Math.multiplyExact(timestamp.getEpochSecond(), 1_000_000_000L), timestamp.getNano());
+	}
+
+	/**
+  	 * @return the epoch nanoseconds of the given instant, saturated to the range of long values
+  	 */
+	static long clampToEpochNanos(Instant timestamp) {
+		try {
+			return toEpochNanos(timestamp);
+		} catch (ArithmeticException e) {
+			return timestamp.getEpochSecond() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * Columns of trade fields, either the ring of a segment or rows set aside. The arrays of a segment are
+	 * replaced all together when it grows, so that an optimistic reader never sees columns of different lengths.
+	 */
+	private static final class Columns {
+		final long[] epochNanos;
+		final int[] quantities;
+		final long[] priceTicks;
+		final int[] priceScales;
+		final byte[] indicators;
+
+		Columns(int capacity) {
+			epochNanos = new long[capacity];
+			quantities = new int[capacity];
+			priceTicks = new long[capacity];
+			priceScales = new int[capacity];
+			indicators = new byte[capacity];
+		}
+
+		int length() {
+			return epochNanos.length;
+		}
+
+		void write(int row, long nanos, int quantity, long ticks, int scale, byte indicator) {
+			epochNanos[row] = nanos;
+			quantities[row] = quantity;
+			priceTicks[row] = ticks;
+			priceScales[row] = scale;
+			indicators[row] = indicator;
+		}
+
+		void write(int row, Columns source, int sourceRow) {
+			write(row, source.epochNanos[sourceRow], source.quantities[sourceRow], source.priceTicks[sourceRow],
+					source.priceScales[sourceRow], source.indicators[sourceRow]);
+		}
+
+		static void copy(Columns source, int sourceRow, Columns target, int targetRow, int length) {
+			System.arraycopy(source.epochNanos, sourceRow, target.epochNanos, targetRow, length);
+			System.arraycopy(source.quantities, sourceRow, target.quantities, targetRow, length);
+			System.arraycopy(source.priceTicks, sourceRow, target.priceTicks, targetRow, length);
+			System.arraycopy(source.priceScales, sourceRow, target.priceScales, targetRow, length);
+			System.arraycopy(source.indicators, sourceRow, target.indicators, targetRow, length);
+		}
+	}
+
+	/**
+	 * The trades of a single stock, in a ring of columns guarded by a lock of their own.
+	 */
+	private static final class Segment {
+		final Stock stock;
+		private final StampedLock lock = new StampedLock();
+		private Columns columns = new Columns(INITIAL_CAPACITY);
+		private int head;
+		private int size;
+		/** The epoch nanoseconds of the oldest trade of the segment, <code>Long.MAX_VALUE</code> if there is none. */
+		volatile long first = Long.MAX_VALUE;
+
+		Segment(Stock stock) {
+			this.stock = stock;
+		}
+
+		void insert(long nanos, int quantity, long ticks, int scale, byte indicator) {
+			long stamp = lock.writeLock();
+			try {
+				if(size == columns.length()) {
+					grow(size + 1);
+				}
+				int index = indexAfter(columns, head, size, nanos);
+				shiftUp(index);
+				columns.write(rowOf(index), nanos, quantity, ticks, scale, indicator);
+				size++;
+				first = columns.epochNanos[head];
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+  		 * Merge rows in time order with the trades of the segment: the trades performed after the earliest of the
+  		 * rows are set aside, then written back interleaved with the rows.
+  		 */
+		void merge(Columns rows, int from, int to) {
+			long stamp = lock.writeLock();
+			try {
+				int length = to - from;
+				if(size + length > columns.length()) {
+					grow(size + length);
+				}
+				int index = indexAfter(columns, head, size, rows.epochNanos[from]);
+				Columns tail = new Columns(size - index);
+				copyOut(index, tail, tail.length());
+				for(int i = 0, j = from; i < tail.length() || j < to; index++) {
+					if(j == to || i < tail.length() && tail.epochNanos[i] <= rows.epochNanos[j]) {
+						columns.write(rowOf(index), tail, i++);
+					} else {
+						columns.write(rowOf(index), rows, j++);
+					}
+				}
+				size += length;
+				first = columns.epochNanos[head];
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+  		 * Shift the trades from the given index on by one row, to make room for a trade arriving late. The rows are
+  		 * copied a contiguous span at a time, starting from the end, the ring wrapping around at most once.
+  		 */
+		private void shiftUp(int index) {
+			for(int end = size; end > index; ) {
+				int source = rowOf(end - 1);
+				int target = rowOf(end);
+				int length = Math.min(end - index, Math.min(source, target) + 1);
+				Columns.copy(columns, source - length + 1, columns, target - length + 1, length);
+				end -= length;
+			}
+		}
+
+		/**
+  		 * Copy rows from the given index on to the start of the given columns, in at most two spans.
+  		 */
+		private void copyOut(int index, Columns target, int length) {
+			int row = rowOf(index);
+			int span = Math.min(length, columns.length() - row);
+			Columns.copy(columns, row, target, 0, span);
+			Columns.copy(columns, 0, target, span, length - span);
+		}
+
+		private void grow(int minCapacity) {
+			int capacity = columns.length() * 2;
+			while(capacity < minCapacity) {
+				capacity *= 2;
+			}
+			Columns grown = new Columns(capacity);
+			copyOut(0, grown, size);
+			columns = grown;
+			head = 0;
+		}
+
+		private int rowOf(int index) {
+			return (head + index) & (columns.length() - 1);
+		}
+
+		int dropBefore(long nanos) {
+			long stamp = lock.writeLock();
+			try {
+				int count = indexFrom(columns, head, size, nanos);
+				removeFirst(count);
+				return count;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+  		 * @return the trades performed before the given instant, removed, or null if there is none
+  		 */
+		Columns takeBefore(long nanos) {
+			long stamp = lock.writeLock();
+			try {
+				int count = indexFrom(columns, head, size, nanos);
+				if(count == 0) {
+					return null;
+				}
+				Columns taken = new Columns(count);
+				copyOut(0, taken, count);
+				removeFirst(count);
+				return taken;
+			} finally {
+				lock.unlockWrite(stamp);
+			}
+		}
+
+		private void removeFirst(int count) {
+			if(count > 0) {
+				head = rowOf(count);
+				size -= count;
+				first = size == 0 ? Long.MAX_VALUE : columns.epochNanos[head];
+			}
+		}
+
+		void materialize(Columns rows, List<Trade> trades) {
+			for(int row = 0; row < rows.length(); row++) {
+				trades.add(materialize(rows, row));
+			}
+		}
+
+		private Trade materialize(Columns columns, int row) {
+			Instant timestamp = Instant.ofEpochSecond(0, columns.epochNanos[row]);
+			if(INDICATORS[columns.indicators[row]] == TradeIndicator.BUY) {
+				return Trade.buy(timestamp, stock, columns.quantities[row], columns.priceTicks[row], columns.priceScales[row]);
+			}
+			return Trade.sell(timestamp, stock, columns.quantities[row], columns.priceTicks[row], columns.priceScales[row]);
+		}
+
+		List<Trade> after(long nanos) {
+			long stamp = lock.tryOptimisticRead();
+			if(stamp != 0) {
+				try {
+					List<Trade> trades = readAfter(nanos);
+					if(lock.validate(stamp)) {
+						return trades;
+					}
+				} catch (RuntimeException e) {
+					if(lock.validate(stamp)) {
+						throw e;
+					} // else the rows have been torn by a writer, they are read again under the lock
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return readAfter(nanos);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		private List<Trade> readAfter(long nanos) {
+			Columns columns = this.columns;
+			int head = this.head;
+			int size = this.size;
+			int mask = columns.length() - 1;
+			List<Trade> trades = new ArrayList<>();
+			for(int i = indexAfter(columns, head, size, nanos); i < size; i++) {
+				trades.add(materialize(columns, (head + i) & mask));
+			}
+			return trades;
+		}
+
+		long nextAfter(long nanos) {
+			long stamp = lock.tryOptimisticRead();
+			if(stamp != 0) {
+				try {
+					long next = readNextAfter(nanos);
+					if(lock.validate(stamp)) {
+						return next;
+					}
+				} catch (RuntimeException e) {
+					if(lock.validate(stamp)) {
+						throw e;
+					} // else the rows have been torn by a writer, they are read again under the lock
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				return readNextAfter(nanos);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		private long readNextAfter(long nanos) {
+			Columns columns = this.columns;
+			int head = this.head;
+			int size = this.size;
+			int index = indexAfter(columns, head, size, nanos);
+			return index < size ? columns.epochNanos[(head + index) & (columns.length() - 1)] : Long.MAX_VALUE;
+		}
+
+		/**
+  		 * Accumulate the trades performed after <code>fromNanos</code> and before <code>toNanos</code>, or all the
+  		 * trades performed after <code>fromNanos</code> if <code>toNanos</code> is <code>Long.MAX_VALUE</code>. The
+  		 * range is read optimistically into an accumulator of its own, combined into the given one once validated.
+  		 */
+		void accumulate(long fromNanos, long toNanos, Accumulator accumulator) {
+			long stamp = lock.tryOptimisticRead();
+			if(stamp != 0) {
+				try {
+					Accumulator range = new Accumulator(accumulator.precisionPolicy);
+					readRange(fromNanos, toNanos, range);
+					if(lock.validate(stamp)) {
+						accumulator.combine(range);
+						return;
+					}
+				} catch (RuntimeException e) {
+					if(lock.validate(stamp)) {
+						throw e;
+					} // else the rows have been torn by a writer, they are read again under the lock
+				}
+			}
+			stamp = lock.readLock();
+			try {
+				readRange(fromNanos, toNanos, accumulator);
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+
+		private void readRange(long fromNanos, long toNanos, Accumulator accumulator) {
+			Columns columns = this.columns;
+			int head = this.head;
+			int size = this.size;
+			int mask = columns.length() - 1;
+			int end = toNanos == Long.MAX_VALUE ? size : indexFrom(columns, head, size, toNanos);
+			for(int i = indexAfter(columns, head, size, fromNanos); i < end; i++) {
+				int row = (head + i) & mask;
+				accumulator.accumulate(columns.quantities[row], columns.priceTicks[row], columns.priceScales[row]);
+			}
+		}
+
+		/**
+  		 * @return the index of the first trade performed after the given instant, or the size if there is none
+  		 */
+		private static int indexAfter(Columns columns, int head, int size, long nanos) {
+			int mask = columns.length() - 1;
+			int low = 0;
+			int high = size;
+			while(low < high) {
+				int middle = (low + high) >>> 1;
+				if(columns.epochNanos[(head + middle) & mask] <= nanos) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+  		 * @return the index of the first trade performed at the given instant or after it, or the size if there
+  		 * is none
+  		 */
+		private static int indexFrom(Columns columns, int head, int size, long nanos) {
+			return nanos == Long.MIN_VALUE ? 0 : indexAfter(columns, head, size, nanos - 1);
+		}
+	}
+}
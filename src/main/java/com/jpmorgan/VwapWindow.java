@@ -0,0 +1,188 @@
+package com.jpmorgan;
+
+import java.math.BigDecimal;
+
+import com.jpmorgan.StockExchange.Accumulator;
+
+/**
+ * Rolling window of trade buckets for a single stock, each bucket spanning the same number of seconds, the
+ * resolution of the window. Each bucket holds the running sum of the price x quantity products and the running
+ * quantity of the trades performed in its span, so that recording a trade costs O(1) and calculating the weighted
+ * average price costs O(buckets), no matter how many trades have been recorded. The products are held either as
+ * <code>BigDecimal</code> amounts or, for exchanges using a {@link FixedPoint} representation, as long notional
+ * values in ticks. Each bucket also counts its trades.
+ * @author bdinos
+ */
+final class VwapWindow {
+	/** Number of per-second buckets, it covers the 15 minutes window plus some slack for trades stamped in the future. */
+	static final int CAPACITY = 1024;
+
+	/** The number of seconds spanned by each bucket. */
+	final int resolution;
+	private final int capacity;
+	private final int mask;
+	private final long[] buckets;
+	private final BigDecimal[] amounts;
+	private final long[] notionals;
+	private final long[] quantities;
+	private final long[] counts;
+	private long latestBucket = Long.MIN_VALUE;
+
+	/**
+  	 * Constructor of a window of {@link #CAPACITY} per-second buckets.
+  	 * @param fixedPoint true to hold the products as long notional values
+  	 */
+	VwapWindow(boolean fixedPoint) {
+		this(fixedPoint, 1, CAPACITY);
+	}
+
+	/**
+  	 * Constructor.
+  	 * @param fixedPoint true to hold the products as long notional values
+  	 * @param resolution the number of seconds spanned by each bucket
+  	 * @param capacity the number of buckets, a power of two
+  	 */
+	VwapWindow(boolean fixedPoint, int resolution, int capacity) {
+		this.resolution = resolution;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		buckets = new long[capacity];
+		quantities = new long[capacity];
+		counts = new long[capacity];
+		amounts = fixedPoint ? null : new BigDecimal[capacity];
+		notionals = fixedPoint ? new long[capacity] : null;
+	}
+
+	private long bucketOf(long second) {
+		return resolution == 1 ? second : Math.floorDiv(second, resolution);
+	}
+
+	/**
+  	 * Add a trade to the bucket it has been performed in. Trades older than the oldest bucket held by the window 
+  	 * are ignored.
+  	 * @param second the epoch second the trade was performed in
+  	 * @param amount the price x quantity product of the trade
+  	 * @param quantity the number of shares exchanged
+  	 */
+	void add(long second, BigDecimal amount, int quantity) {
+		int slot = slotOf(bucketOf(second));
+		if(slot < 0) {
+			return;
+		}
+		amounts[slot] = quantities[slot] == 0 ? amount : amounts[slot].add(amount);
+		quantities[slot] += quantity;
+		counts[slot]++;
+	}
+
+	/**
+  	 * Add a trade to the bucket it has been performed in. Trades older than the oldest bucket held by the window 
+  	 * are ignored.
+  	 * @param second the epoch second the trade was performed in
+  	 * @param notional the price x quantity product of the trade, in ticks
+  	 * @param quantity the number of shares exchanged
+  	 * @throws ArithmeticException if the notional value of the bucket overflows
+  	 */
+	void add(long second, long notional, int quantity) {
+		int slot = slotOf(bucketOf(second));
+		if(slot < 0) {
+			return;
+		}
+		notionals[slot] = Math.addExact(notionals[slot], notional);
+		quantities[slot] += quantity;
+		counts[slot]++;
+	}
+
+	/**
+  	 * Find the slot of the given bucket, resetting it if it still holds an older bucket.
+  	 * @return the slot of the bucket, or -1 if the bucket is older than the oldest bucket held
+  	 */
+	private int slotOf(long bucket) {
+		if(bucket > latestBucket) {
+			latestBucket = bucket;
+		} else if(bucket <= latestBucket - capacity) {
+			return -1;
+		}
+		int slot = (int) (bucket & mask);
+		if(buckets[slot] != bucket) {
+			buckets[slot] = bucket;
+			quantities[slot] = 0;
+			counts[slot] = 0;
+			if(notionals != null) {
+				notionals[slot] = 0;
+			}
+		}
+		return slot;
+	}
+
+	/**
+  	 * @param second an epoch second
+  	 * @return true if the bucket of the given second, and all the buckets after it, are held by the window; an
+  	 * empty window covers every second, as it holds all of its (zero) trades
+  	 */
+	boolean covers(long second) {
+		long latestBucket = this.latestBucket;
+		return latestBucket == Long.MIN_VALUE || bucketOf(second) > latestBucket - capacity;
+	}
+
+	/**
+  	 * @param second an epoch second
+  	 * @return true if at least one trade held has been performed in the bucket of the given second or after it
+  	 */
+	boolean hasTradesFrom(long second) {
+		return latestBucket != Long.MIN_VALUE && latestBucket >= bucketOf(second);
+	}
+
+	/**
+  	 * @param second an epoch second
+  	 * @return true if at least one trade has been performed in the bucket of the given second
+  	 */
+	boolean hasTrades(long second) {
+		long bucket = bucketOf(second);
+		int slot = (int) (bucket & mask);
+		return buckets[slot] == bucket && quantities[slot] != 0;
+	}
+
+	/**
+  	 * Accumulate the buckets from the one of the first given second, up to the one before the bucket of the 
+  	 * second given second. Only the buckets in that range are read.
+  	 * @param fromSecond the epoch second the range starts from, included
+  	 * @param toSecond the epoch second the range ends at, excluded
+  	 * @param accumulator the accumulator to combine the buckets into
+  	 */
+	void accumulateBetween(long fromSecond, long toSecond, Accumulator accumulator) {
+		long latestBucket = this.latestBucket;
+		long from = Math.max(bucketOf(fromSecond), latestBucket - capacity + 1);
+		long to = Math.min(bucketOf(toSecond), latestBucket + 1);
+		for(long bucket = from; bucket < to; bucket++) {
+			int slot = (int) (bucket & mask);
+			if(quantities[slot] != 0 && buckets[slot] == bucket) {
+				if(notionals != null) {
+					accumulator.combine(notionals[slot], quantities[slot]);
+				} else if(amounts[slot] != null) { // may be seen as null by an optimistic read racing a writer
+					accumulator.combine(amounts[slot], quantities[slot]);
+				}
+			}
+		}
+	}
+
+	/**
+  	 * Count the trades of the buckets from the one of the first given second, up to the one before the bucket of
+  	 * the second given second, see {@link #accumulateBetween(long, long, Accumulator)}.
+  	 * @param fromSecond the epoch second the range starts from, included
+  	 * @param toSecond the epoch second the range ends at, excluded
+  	 * @return the number of trades
+  	 */
+	long countBetween(long fromSecond, long toSecond) {
+		long latestBucket = this.latestBucket;
+		long from = Math.max(bucketOf(fromSecond), latestBucket - capacity + 1);
+		long to = Math.min(bucketOf(toSecond), latestBucket + 1);
+		long count = 0;
+		for(long bucket = from; bucket < to; bucket++) {
+			int slot = (int) (bucket & mask);
+			if(buckets[slot] == bucket) {
+				count += counts[slot];
+			}
+		}
+		return count;
+	}
+}
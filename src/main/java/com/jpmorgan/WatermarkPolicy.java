@@ -0,0 +1,37 @@
+package com.jpmorgan;
+
+import java.time.Duration;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Policy of the event-time ingestion of a {@link StockExchange}. Trades are held in a reorder buffer and applied 
+ * in time order once the watermark, trailing the latest trade by the allowed lateness, has passed them. Trades
+ * older than the watermark when they arrive are late: they are either rejected or dropped, and counted by the
+ * metrics of the market in both cases.
+ * @author bdinos
+ */
+public final class WatermarkPolicy {
+	public final Duration allowedLateness;
+	public final boolean rejectLate;
+
+	/**
+  	 * Constructor of a policy dropping late trades.
+  	 * @param allowedLateness how far behind the latest trade a trade may be performed
+  	 */
+	public WatermarkPolicy(Duration allowedLateness) {
+		this(allowedLateness, false);
+	}
+
+	/**
+  	 * Constructor.
+  	 * @param allowedLateness how far behind the latest trade a trade may be performed
+  	 * @param rejectLate true to reject late trades, false to drop them
+  	 */
+	public WatermarkPolicy(Duration allowedLateness, boolean rejectLate) {
+		Validate.notNull(allowedLateness);
+		Validate.isTrue(!allowedLateness.isNegative());
+		this.allowedLateness = allowedLateness;
+		this.rejectLate = rejectLate;
+	}
+}
@@ -0,0 +1,51 @@
+package com.jpmorgan.archive;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+import org.apache.commons.lang.Validate;
+
+import com.jpmorgan.model.Trade;
+
+/**
+ * {@link TradeArchive} appending the evicted trades to a text file, one trade per line with the comma separated
+ * fields <code>timestamp,symbol,indicator,quantity,price</code>. The time stamp is written in ISO-8601 format.
+ * @author bdinos
+ */
+public class FileTradeArchive implements TradeArchive, Closeable {
+	private final BufferedWriter writer;
+
+	/**
+  	 * Constructor. The file is created if it does not exist, otherwise trades are appended to it.
+  	 * @param path the archive file
+  	 * @throws IOException if the file could not be opened
+  	 */
+	public FileTradeArchive(Path path) throws IOException {
+		Validate.notNull(path);
+		writer = Files.newBufferedWriter(path, StandardCharsets.US_ASCII, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+	}
+
+	@Override
+	public synchronized void archive(Collection<Trade> trades) throws IOException {
+		for(Trade trade: trades) {
+			writer.append(trade.timestamp.toString()).append(',')
+				.append(trade.stock.symbol).append(',')
+				.append(trade.tradeIndicator.name()).append(',')
+				.append(Integer.toString(trade.sharesQuantity)).append(',')
+				.append(trade.price.toPlainString());
+			writer.newLine();
+		}
+		writer.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		writer.close();
+	}
+}
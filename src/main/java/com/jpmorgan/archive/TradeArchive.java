@@ -0,0 +1,21 @@
+package com.jpmorgan.archive;
+
+import java.io.IOException;
+import java.util.Collection;
+
+import com.jpmorgan.model.Trade;
+
+/**
+ * Sink receiving the trades evicted from a {@link com.jpmorgan.StockExchange} by its
+ * {@link com.jpmorgan.RetentionPolicy}.
+ * @author bdinos
+ */
+@FunctionalInterface
+public interface TradeArchive {
+	/**
+  	 * Archive a batch of evicted trades. Batches are handed over in time order.
+  	 * @param trades the evicted trades, ordered by time stamp
+  	 * @throws IOException if the trades could not be archived
+  	 */
+	void archive(Collection<Trade> trades) throws IOException;
+}
@@ -0,0 +1,51 @@
+package com.jpmorgan.model;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Model class that represents an OHLCV bar: the open, high, low and close prices, the volume and the weighted
+ * average price of the trades of a stock performed within an interval.
+ * @author bdinos
+ */
+public class Bar {
+	public final Stock stock;
+	public final Instant start;
+	public final Duration interval;
+	public final BigDecimal open;
+	public final BigDecimal high;
+	public final BigDecimal low;
+	public final BigDecimal close;
+	public final long volume;
+	public final BigDecimal vwap;
+
+	/**
+  	 * Constructor.
+  	 * @param stock
+  	 * @param start the instant the bar starts at
+  	 * @param interval the length of the bar
+  	 * @param open the price of the first trade of the bar
+  	 * @param high the highest price of the bar
+  	 * @param low the lowest price of the bar
+  	 * @param close the price of the last trade of the bar
+  	 * @param volume the number of shares exchanged
+  	 * @param vwap the weighted average price of the bar
+  	 */
+	public Bar(Stock stock, Instant start, Duration interval, BigDecimal open, BigDecimal high, BigDecimal low, BigDecimal close, long volume, BigDecimal vwap) {
+		this.stock = stock;
+		this.start = start;
+		this.interval = interval;
+		this.open = open;
+		this.high = high;
+		this.low = low;
+		this.close = close;
+		this.volume = volume;
+		this.vwap = vwap;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s/%s O=%s H=%s L=%s C=%s V=%d VWAP=%s", stock, start, interval, open, high, low, close, volume, vwap);
+	}
+}
@@ -0,0 +1,134 @@
+package com.jpmorgan.model;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Model class that represents a snapshot of a market: the price, the dividend yield and the PE ratio of every
+ * stock, one row per stock, and the GBCE All Share Index. A value which is not available is flagged as such 
+ * rather than thrown as an exception. The snapshot is immutable.
+ * Snapshots published by a market carry an epoch, increasing with every publication, so that readers can tell
+ * whether the market has moved on since the snapshot they hold.
+ * @author bdinos
+ */
+public final class MarketSnapshot {
+	public final Instant timestamp;
+	/** The version of the snapshot among those published by its market, or 0 if it has not been published. */
+	public final long epoch;
+	private final Stock[] stocks;
+	private final int[] rowsById;
+	private final BigDecimal[] prices;
+	private final BigDecimal[] dividendYields;
+	private final BigDecimal[] priceEarningsRatios;
+	private final BigDecimal index;
+
+	/**
+  	 * Constructor of a snapshot which has not been published. The arrays are owned by the snapshot from now on, 
+  	 * the values not available being null.
+  	 * @param timestamp the instant the snapshot has been taken at
+  	 * @param stocks the stocks, one per row
+  	 * @param prices the stock prices
+  	 * @param dividendYields the stock dividend yields
+  	 * @param priceEarningsRatios the stock PE ratios
+  	 * @param index the GBCE All Share Index
+  	 */
+	public MarketSnapshot(Instant timestamp, Stock[] stocks, BigDecimal[] prices, BigDecimal[] dividendYields, BigDecimal[] priceEarningsRatios, BigDecimal index) {
+		this(0, timestamp, stocks, prices, dividendYields, priceEarningsRatios, index);
+	}
+
+	/**
+  	 * Constructor. The arrays are owned by the snapshot from now on, the values not available being null.
+  	 * @param epoch the version of the snapshot among those published by its market
+  	 * @param timestamp the instant the snapshot has been taken at
+  	 * @param stocks the stocks, one per row
+  	 * @param prices the stock prices
+  	 * @param dividendYields the stock dividend yields
+  	 * @param priceEarningsRatios the stock PE ratios
+  	 * @param index the GBCE All Share Index
+  	 */
+	public MarketSnapshot(long epoch, Instant timestamp, Stock[] stocks, BigDecimal[] prices, BigDecimal[] dividendYields, BigDecimal[] priceEarningsRatios, BigDecimal index) {
+		this.epoch = epoch;
+		this.timestamp = timestamp;
+		this.stocks = stocks;
+		this.prices = prices;
+		this.dividendYields = dividendYields;
+		this.priceEarningsRatios = priceEarningsRatios;
+		this.index = index;
+		int maxId = -1;
+		for(Stock stock: stocks) {
+			maxId = Math.max(maxId, stock.id);
+		}
+		rowsById = new int[maxId + 1];
+		Arrays.fill(rowsById, -1);
+		for(int row = 0; row < stocks.length; row++) {
+			rowsById[stocks[row].id] = row;
+		}
+	}
+
+	/**
+  	 * @return the number of rows, one per stock
+  	 */
+	public int size() {
+		return stocks.length;
+	}
+
+	public Stock getStock(int row) {
+		return stocks[row];
+	}
+
+	/**
+  	 * @param stock a stock
+  	 * @return the row of the stock, or -1 if it is not part of the snapshot
+  	 */
+	public int rowOf(Stock stock) {
+		return stock.id < rowsById.length ? rowsById[stock.id] : -1;
+	}
+
+	public boolean isPriceAvailable(int row) {
+		return prices[row] != null;
+	}
+
+	/**
+  	 * @param row a row
+  	 * @return the stock price, or null if it is not available
+  	 */
+	public BigDecimal getPrice(int row) {
+		return prices[row];
+	}
+
+	public boolean isDividendYieldAvailable(int row) {
+		return dividendYields[row] != null;
+	}
+
+	/**
+  	 * @param row a row
+  	 * @return the stock dividend yield, or null if it is not available
+  	 */
+	public BigDecimal getDividendYield(int row) {
+		return dividendYields[row];
+	}
+
+	public boolean isPriceEarningsRatioAvailable(int row) {
+		return priceEarningsRatios[row] != null;
+	}
+
+	/**
+  	 * @param row a row
+  	 * @return the stock PE ratio, or null if it is not available
+  	 */
+	public BigDecimal getPriceEarningsRatio(int row) {
+		return priceEarningsRatios[row];
+	}
+
+	public boolean isIndexAvailable() {
+		return index != null;
+	}
+
+	/**
+  	 * @return the GBCE All Share Index, or null if no stock has a price
+  	 */
+	public BigDecimal getIndex() {
+		return index;
+	}
+}
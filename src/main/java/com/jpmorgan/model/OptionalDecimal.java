@@ -0,0 +1,75 @@
+package com.jpmorgan.model;
+
+import java.math.BigDecimal;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/**
+ * Result of a query which may have no value, e.g. the price of a stock which has not been traded in the window.
+ * Unlike throwing an exception, an empty result costs no allocation: there is a single empty instance.
+ * @author bdinos
+ */
+public final class OptionalDecimal {
+	private static final OptionalDecimal EMPTY = new OptionalDecimal(null);
+
+	private final BigDecimal value;
+
+	private OptionalDecimal(BigDecimal value) {
+		this.value = value;
+	}
+
+	/**
+  	 * @return the empty result
+  	 */
+	public static OptionalDecimal empty() {
+		return EMPTY;
+	}
+
+	/**
+  	 * @param value a value, or null
+  	 * @return the result holding the given value, or the empty result if it is null
+  	 */
+	public static OptionalDecimal ofNullable(BigDecimal value) {
+		return value == null ? EMPTY : new OptionalDecimal(value);
+	}
+
+	public boolean isPresent() {
+		return value != null;
+	}
+
+	/**
+  	 * @return the value
+  	 * @throws NoSuchElementException if the result is empty
+  	 */
+	public BigDecimal get() {
+		if(value == null) {
+			throw new NoSuchElementException("No value present");
+		}
+		return value;
+	}
+
+	/**
+  	 * @param other the value to be returned if the result is empty
+  	 * @return the value, or the given one if the result is empty
+  	 */
+	public BigDecimal orElse(BigDecimal other) {
+		return value == null ? other : value;
+	}
+
+	/**
+  	 * @param exceptionSupplier the supplier of the exception to be thrown if the result is empty
+  	 * @return the value
+  	 * @throws X if the result is empty
+  	 */
+	public <X extends Throwable> BigDecimal orElseThrow(Supplier<? extends X> exceptionSupplier) throws X {
+		if(value == null) {
+			throw exceptionSupplier.get();
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return value == null ? "OptionalDecimal.empty" : "OptionalDecimal[" + value + "]";
+	}
+}
@@ -0,0 +1,89 @@
+package com.jpmorgan.model;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+
+/**
+ * Model class that represents the order flow of a stock over a window: the volume, the number of trades and the
+ * weighted average price of its buy trades and of its sell trades, see {@link Trade.TradeIndicator}. A weighted
+ * average price with no trade on its side is null.
+ * @author bdinos
+ */
+public class OrderFlow {
+	public final Stock stock;
+	public final Duration window;
+	public final long buyVolume;
+	public final long sellVolume;
+	public final long buyCount;
+	public final long sellCount;
+	public final BigDecimal buyVwap;
+	public final BigDecimal sellVwap;
+
+	/**
+  	 * Constructor.
+  	 * @param stock
+  	 * @param window the length of the window
+  	 * @param buyVolume the number of shares bought
+  	 * @param sellVolume the number of shares sold
+  	 * @param buyCount the number of buy trades
+  	 * @param sellCount the number of sell trades
+  	 * @param buyVwap the weighted average price of the buy trades, or null if there are none
+  	 * @param sellVwap the weighted average price of the sell trades, or null if there are none
+  	 */
+	public OrderFlow(Stock stock, Duration window, long buyVolume, long sellVolume, long buyCount, long sellCount, BigDecimal buyVwap, BigDecimal sellVwap) {
+		this.stock = stock;
+		this.window = window;
+		this.buyVolume = buyVolume;
+		this.sellVolume = sellVolume;
+		this.buyCount = buyCount;
+		this.sellCount = sellCount;
+		this.buyVwap = buyVwap;
+		this.sellVwap = sellVwap;
+	}
+
+	/**
+  	 * @return the number of shares exchanged, on both sides
+  	 */
+	public long getVolume() {
+		return buyVolume + sellVolume;
+	}
+
+	/**
+  	 * @return the number of trades, on both sides
+  	 */
+	public long getCount() {
+		return buyCount + sellCount;
+	}
+
+	/**
+  	 * Calculate the volume imbalance, as (buy volume - sell volume) / volume.
+  	 * @return the volume imbalance, from -1 when only selling to 1 when only buying, or NaN if there is no trade
+  	 */
+	public double getImbalance() {
+		long volume = getVolume();
+		return volume == 0 ? Double.NaN : (double) (buyVolume - sellVolume) / volume;
+	}
+
+	/**
+  	 * @return the number of buy trades per second over the window
+  	 */
+	public double getBuyRate() {
+		return buyCount / seconds();
+	}
+
+	/**
+  	 * @return the number of sell trades per second over the window
+  	 */
+	public double getSellRate() {
+		return sellCount / seconds();
+	}
+
+	private double seconds() {
+		return window.toNanos() / 1e9;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s %s buy=%d@%s (%d trades) sell=%d@%s (%d trades)", stock, window, buyVolume, buyVwap, buyCount, sellVolume, sellVwap, sellCount);
+	}
+}
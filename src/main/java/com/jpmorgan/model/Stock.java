@@ -1,28 +1,95 @@
 package com.jpmorgan.model;
 
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
 import org.apache.commons.lang.Validate;
 
 /**
- * Model class that represents a stock.
+ * Model class that represents a stock. Stocks are registered at runtime by using the
+ * {@link Stock#register(String, Type)} method, which assigns each symbol a dense int id, so that the state of a
+ * stock can be kept in arrays indexed by that id. There is a single instance per symbol, stocks can therefore be
+ * compared by reference.
  * @author bdinos
  */
-public enum Stock {
-	TEA_C("TEA", Type.COMMON),
-	POP_C("POP", Type.COMMON),
-	ALE_C("ALE", Type.COMMON),
-	GIN_P("GIN", Type.PREFERRED),
-	JOE_C("JOE", Type.COMMON),
-	;
-	
+public final class Stock {
+	private static final ConcurrentHashMap<String, Stock> STOCKS_BY_SYMBOL = new ConcurrentHashMap<>();
+	private static volatile Stock[] stocksById = new Stock[16];
+	private static int count;
+
+	public static final Stock TEA_C = register("TEA", Type.COMMON);
+	public static final Stock POP_C = register("POP", Type.COMMON);
+	public static final Stock ALE_C = register("ALE", Type.COMMON);
+	public static final Stock GIN_P = register("GIN", Type.PREFERRED);
+	public static final Stock JOE_C = register("JOE", Type.COMMON);
+
 	public final String symbol;
 	public final Type type;
-	
-	private Stock(String symbol, Type type) {
-		Validate.notNull(symbol);
+	public final int id;
+
+	private Stock(String symbol, Type type, int id) {
 		this.symbol = symbol;
 		this.type = type;
+		this.id = id;
+	}
+
+	/**
+  	 * Register a stock, or get the stock already registered with the given symbol.
+  	 * @param symbol the stock's symbol
+  	 * @param type the stock's type
+  	 * @return the stock
+  	 * @throws IllegalArgumentException if the symbol has already been registered with a different type
+  	 */
+	public static synchronized Stock register(String symbol, Type type) {
+		Validate.notNull(symbol);
+		Validate.notNull(type);
+		Stock stock = STOCKS_BY_SYMBOL.get(symbol);
+		if(stock != null) {
+			Validate.isTrue(stock.type == type, "Stock already registered with a different type: ", symbol);
+			return stock;
+		}
+		stock = new Stock(symbol, type, count);
+		Stock[] stocks = stocksById;
+		if(count == stocks.length) {
+			stocks = Arrays.copyOf(stocks, stocks.length * 2);
+		}
+		stocks[count++] = stock;
+		stocksById = stocks;
+		STOCKS_BY_SYMBOL.put(symbol, stock);
+		return stock;
+	}
+
+	/**
+  	 * @param symbol a stock's symbol
+  	 * @return the stock registered with the given symbol, or null if there is none
+  	 */
+	public static Stock of(String symbol) {
+		return STOCKS_BY_SYMBOL.get(symbol);
+	}
+
+	/**
+  	 * @param id a stock's id
+  	 * @return the stock registered with the given id, or null if there is none
+  	 */
+	public static Stock byId(int id) {
+		Stock[] stocks = stocksById;
+		return id >= 0 && id < stocks.length ? stocks[id] : null;
 	}
-	
+
+	/**
+  	 * @return the number of stocks registered, ids range from 0 to this number excluded
+  	 */
+	public static synchronized int count() {
+		return count;
+	}
+
+	/**
+  	 * @return all the stocks registered, ordered by id
+  	 */
+	public static synchronized Stock[] values() {
+		return Arrays.copyOf(stocksById, count);
+	}
+
 	@Override
 	public String toString() {
 		return symbol;
@@ -0,0 +1,37 @@
+package com.jpmorgan.model;
+
+import java.math.BigDecimal;
+
+import org.apache.commons.lang.Validate;
+
+/**
+ * Model class that represents the values of a stock published to the listeners of a market. A value which is
+ * not available, e.g. a price with no trade in the latest 15 minutes, is null.
+ * @author bdinos
+ */
+public class StockUpdate {
+	public final Stock stock;
+	public final BigDecimal price;
+	public final BigDecimal dividendYield;
+	public final BigDecimal priceEarningsRatio;
+
+	/**
+  	 * Constructor.
+  	 * @param stock
+  	 * @param price the stock's price, the weighted average of the latest trades
+  	 * @param dividendYield the stock's dividend yield
+  	 * @param priceEarningsRatio the stock's PE ratio
+  	 */
+	public StockUpdate(Stock stock, BigDecimal price, BigDecimal dividendYield, BigDecimal priceEarningsRatio) {
+		Validate.notNull(stock);
+		this.stock = stock;
+		this.price = price;
+		this.dividendYield = dividendYield;
+		this.priceEarningsRatio = priceEarningsRatio;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s price=%s dividendYield=%s priceEarningsRatio=%s", stock, price, dividendYield, priceEarningsRatio);
+	}
+}
@@ -1,23 +1,30 @@
 package com.jpmorgan.model;
 
 import java.math.BigDecimal;
-import java.math.MathContext;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.Validate;
 
-import com.jpmorgan.StockExchange;
+import com.jpmorgan.PrecisionPolicy;
 
 /**
- * Model class that represents a stock's ticker.
+ * Model class that represents a stock's ticker. Its fields are volatile, so that a ticker updated by the thread
+ * recording trades can be read by any other thread.
+ * The dividend yield and the PE ratio are cached, tagged with the version of the fields they have been
+ * calculated from: every setter bumps the version, and reading the ratios of a ticker which has not changed
+ * allocates nothing.
  * @author bdinos
  */
 public class Ticker {
-	private final static MathContext MATH_CTX = StockExchange.MATH_CTX;
 	public final Stock stock;
-	private BigDecimal lastDividend;
-	private BigDecimal fixedDividend; //is a fraction
-	private BigDecimal parValue;
-	private BigDecimal tickerPrice = BigDecimal.ZERO;
+	private volatile PrecisionPolicy precisionPolicy = PrecisionPolicy.DEFAULT;
+	private volatile BigDecimal lastDividend;
+	private volatile BigDecimal fixedDividend; //is a fraction
+	private volatile BigDecimal parValue;
+	private volatile BigDecimal tickerPrice = BigDecimal.ZERO;
+	private final AtomicLong version = new AtomicLong();
+	private volatile CachedRatio dividendYield;
+	private volatile CachedRatio priceEarningsRatio;
 
 	/**
   	 * Constructor.
@@ -48,11 +55,30 @@ public class Ticker {
   	 * @return the PE ratio of this ticker
   	 */
 	public BigDecimal getPriceEarningsRatio() throws EPSNotAvailableException {		
-		BigDecimal eps = getEarningsPerShare();
-		if(eps.signum() > 0) {
-			return tickerPrice.divide(eps, MATH_CTX);	
+		OptionalDecimal priceEarningsRatio = findPriceEarningsRatio();
+		if(!priceEarningsRatio.isPresent()) {
+			throw new EPSNotAvailableException();
 		}
-		throw new EPSNotAvailableException();
+		return priceEarningsRatio.get();
+	}
+	
+	/**
+  	 * Calculate the PE ratio of this ticker, if it is available. Once calculated, the ratio is returned without
+  	 * any allocation until a field of the ticker changes, whether it is available or not.
+  	 * @return the PE ratio of this ticker, empty if no data is available to calculate the EPS
+  	 */
+	public OptionalDecimal findPriceEarningsRatio() {
+		long version = this.version.get();
+		CachedRatio priceEarningsRatio = this.priceEarningsRatio;
+		if(priceEarningsRatio == null || priceEarningsRatio.version != version) {
+			BigDecimal eps = getEarningsPerShare();
+			priceEarningsRatio = new CachedRatio(version, eps.signum() > 0 
+					? OptionalDecimal.ofNullable(getTickerPrice().divide(eps, precisionPolicy.resultContext)) : OptionalDecimal.empty());
+			if(this.version.get() == version) {
+				this.priceEarningsRatio = priceEarningsRatio;
+			}
+		}
+		return priceEarningsRatio.value;
 	}
 	
 	/**
@@ -69,7 +95,7 @@ public class Ticker {
 		if(stock.type == Stock.Type.COMMON){
 			dividend = lastDividend;
 		} else {
-			dividend = fixedDividend.multiply(parValue, MATH_CTX);
+			dividend = fixedDividend.multiply(parValue, precisionPolicy.productContext);
 		}
 		return dividend;
 	}
@@ -79,10 +105,46 @@ public class Ticker {
   	 * @return the dividend yield of this ticker
   	 */
 	public BigDecimal getDividendYield() throws TickerPriceNotAvailableException {
-		if(tickerPrice.signum() <= 0){
+		OptionalDecimal dividendYield = findDividendYield();
+		if(!dividendYield.isPresent()) {
 			throw new TickerPriceNotAvailableException();
 		}
-		return getDividend().divide(tickerPrice, MATH_CTX);
+		return dividendYield.get();
+	}
+	
+	/**
+  	 * Calculate the dividend yield of this ticker, if it is available. Once calculated, the yield is returned 
+  	 * without any allocation until a field of the ticker changes, whether it is available or not.
+  	 * @return the dividend yield of this ticker, empty if the stock has not been marketed yet
+  	 */
+	public OptionalDecimal findDividendYield() {
+		long version = this.version.get();
+		CachedRatio dividendYield = this.dividendYield;
+		if(dividendYield == null || dividendYield.version != version) {
+			BigDecimal tickerPrice = getTickerPrice();
+			dividendYield = new CachedRatio(version, tickerPrice.signum() > 0 
+					? OptionalDecimal.ofNullable(getDividend().divide(tickerPrice, precisionPolicy.resultContext)) : OptionalDecimal.empty());
+			// not cached if a field has changed meanwhile, since the ratio may mix old and new values
+			if(this.version.get() == version) {
+				this.dividendYield = dividendYield;
+			}
+		}
+		return dividendYield.value;
+	}
+
+	public PrecisionPolicy getPrecisionPolicy() {
+		return precisionPolicy;
+	}
+
+	/**
+  	 * Set the precision policy of the calculations of this ticker. It is set by the stock exchange the ticker 
+  	 * gets registered to.
+  	 * @param precisionPolicy the precision policy
+  	 */
+	public void setPrecisionPolicy(PrecisionPolicy precisionPolicy) {
+		Validate.notNull(precisionPolicy);
+		this.precisionPolicy = precisionPolicy;
+		version.incrementAndGet();
 	}
 
 	public BigDecimal getLastDividend() {
@@ -92,6 +154,7 @@ public class Ticker {
 	public void setLastDividend(BigDecimal lastDividend) {
 		Validate.isTrue(lastDividend.signum() >= 0);
 		this.lastDividend = lastDividend;
+		version.incrementAndGet();
 	}
 
 	public BigDecimal getFixedDividend() {
@@ -101,6 +164,7 @@ public class Ticker {
 	public void setFixedDividend(BigDecimal fixedDividend) {
 		Validate.isTrue(fixedDividend.signum() > 0);
 		this.fixedDividend = fixedDividend;
+		version.incrementAndGet();
 	}
 
 	public BigDecimal getParValue() {
@@ -110,6 +174,7 @@ public class Ticker {
 	public void setParValue(BigDecimal parValue) {
 		Validate.isTrue(parValue.signum() > 0);
 		this.parValue = parValue;
+		version.incrementAndGet();
 	}
 
 	public BigDecimal getTickerPrice() {
@@ -119,13 +184,29 @@ public class Ticker {
 	public void setTickerPrice(BigDecimal tickerPrice) {
 		Validate.isTrue(tickerPrice.signum() > 0);
 		this.tickerPrice = tickerPrice;
+		version.incrementAndGet();
+	}
+	
+	/**
+	 * A ratio, tagged with the version of the fields it has been calculated from.
+	 */
+	private static class CachedRatio {
+		final long version;
+		final OptionalDecimal value;
+
+		CachedRatio(long version, OptionalDecimal value) {
+			this.version = version;
+			this.value = value;
+		}
 	}
 	
 	public class TickerPriceNotAvailableException extends Exception {
 		private static final long serialVersionUID = -4082993749160766505L;
 
-		public TickerPriceNotAvailableException() {
-			super(String.format("The ticker price of %s is not available", stock));
+		@Override
+		public String getMessage() {
+			// formatted lazily, the exception being mostly caught without its message being read
+			return String.format("The ticker price of %s is not available", stock);
 		}
 	}
 	
@@ -1,6 +1,7 @@
 package com.jpmorgan.model;
 
 import java.math.BigDecimal;
+import java.time.Clock;
 import java.time.Instant;
 
 import org.apache.commons.lang.Validate;
@@ -15,6 +16,10 @@ public class Trade {
 	public final TradeIndicator tradeIndicator;
 	public final int sharesQuantity;
 	public final BigDecimal price;
+	/** The unscaled value of the price, without its trailing zeros if it would not fit a long otherwise. */
+	public final long priceTicks;
+	/** The scale of the price, the price being <code>priceTicks x 10^-priceScale</code>. */
+	public final int priceScale;
 	
 	private Trade(Instant timestamp, Stock stock, TradeIndicator tradeIndicator, int sharesQuantity, BigDecimal price) {
 		Validate.notNull(timestamp);
@@ -27,6 +32,25 @@ public class Trade {
 		this.sharesQuantity = sharesQuantity;
 		Validate.isTrue(price.signum() > 0);
 		this.price = price;
+		BigDecimal ticks = price.unscaledValue().bitLength() < Long.SIZE ? price : price.stripTrailingZeros();
+		Validate.isTrue(ticks.unscaledValue().bitLength() < Long.SIZE, "Price not representable as a long number of ticks: ", price);
+		this.priceTicks = ticks.unscaledValue().longValue();
+		this.priceScale = ticks.scale();
+	}
+	
+	private Trade(Instant timestamp, Stock stock, TradeIndicator tradeIndicator, int sharesQuantity, long priceTicks, int priceScale) {
+		Validate.notNull(timestamp);
+		this.timestamp = timestamp;
+		Validate.notNull(stock);
+		this.stock = stock;
+		Validate.notNull(tradeIndicator);
+		this.tradeIndicator = tradeIndicator;
+		Validate.isTrue(sharesQuantity > 0);
+		this.sharesQuantity = sharesQuantity;
+		Validate.isTrue(priceTicks > 0);
+		this.priceTicks = priceTicks;
+		this.priceScale = priceScale;
+		this.price = BigDecimal.valueOf(priceTicks, priceScale);
 	}
 	
 	private Trade(Stock stock, TradeIndicator tradeIndicator, int sharesQuantity, BigDecimal price) { 
@@ -55,9 +79,33 @@ public class Trade {
 		return new Trade(stock, TradeIndicator.SELL, sharesQuantity, price);
 	}
 	
+	/**
+  	 * Create a buy trade object having the current instant of the given clock as the time stamp.
+  	 * @param clock the clock, typically the clock of the market, see {@link com.jpmorgan.StockExchange#getClock()}
+  	 * @param stock
+  	 * @param sharesQuantity the number of shares exchanged
+  	 * @param price the price of the shares
+  	 * @return the trade object
+  	 */
+	public static Trade buy(Clock clock, Stock stock, int sharesQuantity, BigDecimal price) {
+		return new Trade(clock.instant(), stock, TradeIndicator.BUY, sharesQuantity, price);
+	}
+	
+	/**
+  	 * Create a sell trade object having the current instant of the given clock as the time stamp.
+  	 * @param clock the clock, typically the clock of the market, see {@link com.jpmorgan.StockExchange#getClock()}
+  	 * @param stock
+  	 * @param sharesQuantity the number of shares exchanged
+  	 * @param price the price of the shares
+  	 * @return the trade object
+  	 */
+	public static Trade sell(Clock clock, Stock stock, int sharesQuantity, BigDecimal price) {
+		return new Trade(clock.instant(), stock, TradeIndicator.SELL, sharesQuantity, price);
+	}
+	
 	/**
   	 * Create a buy trade object having <code>Instant.now()</code> as the time stamp.
-  	 * @param the instant when the trade was performed
+  	 * @param timestamp the instant when the trade was performed
   	 * @param stock
   	 * @param sharesQuantity the number of shares exchanged
   	 * @param price the price of the shares
@@ -69,7 +117,7 @@ public class Trade {
 	
 	/**
   	 * Create a sell trade object having <code>Instant.now()</code> as the time stamp.
-  	 * @param the instant when the trade was performed
+  	 * @param timestamp the instant when the trade was performed
   	 * @param stock
   	 * @param sharesQuantity the number of shares exchanged
   	 * @param price the price of the shares
@@ -78,6 +126,32 @@ public class Trade {
 	public static Trade sell(Instant timestamp, Stock stock, int sharesQuantity, BigDecimal price) {
 		return new Trade(timestamp, stock, TradeIndicator.SELL, sharesQuantity, price);
 	}
+	
+	/**
+  	 * Create a buy trade object whose price is given as a fixed-point value.
+  	 * @param timestamp the instant when the trade was performed
+  	 * @param stock
+  	 * @param sharesQuantity the number of shares exchanged
+  	 * @param priceTicks the unscaled price of the shares
+  	 * @param priceScale the scale of the price, the price being <code>priceTicks x 10^-priceScale</code>
+  	 * @return the trade object
+  	 */
+	public static Trade buy(Instant timestamp, Stock stock, int sharesQuantity, long priceTicks, int priceScale) {
+		return new Trade(timestamp, stock, TradeIndicator.BUY, sharesQuantity, priceTicks, priceScale);
+	}
+	
+	/**
+  	 * Create a sell trade object whose price is given as a fixed-point value.
+  	 * @param timestamp the instant when the trade was performed
+  	 * @param stock
+  	 * @param sharesQuantity the number of shares exchanged
+  	 * @param priceTicks the unscaled price of the shares
+  	 * @param priceScale the scale of the price, the price being <code>priceTicks x 10^-priceScale</code>
+  	 * @return the trade object
+  	 */
+	public static Trade sell(Instant timestamp, Stock stock, int sharesQuantity, long priceTicks, int priceScale) {
+		return new Trade(timestamp, stock, TradeIndicator.SELL, sharesQuantity, priceTicks, priceScale);
+	}
 
 	/**
 	 * Model class that represents a trade indicator (BUY or SELL).
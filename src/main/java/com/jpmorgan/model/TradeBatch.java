@@ -0,0 +1,227 @@
+package com.jpmorgan.model;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.apache.commons.lang.Validate;
+
+import com.jpmorgan.model.Trade.TradeIndicator;
+
+/**
+ * Model class that represents a batch of trades in columnar form, one primitive array per trade field. Prices
+ * are fixed-point values sharing the scale of the batch. A batch can be cleared and filled again, so that a feed
+ * handler does not need to allocate an object per trade.
+ * @author bdinos
+ */
+public class TradeBatch {
+	private static final TradeIndicator[] INDICATORS = TradeIndicator.values();
+
+	public final int priceScale;
+	private long[] epochNanos;
+	private int[] stockIds;
+	private byte[] indicators;
+	private int[] quantities;
+	private long[] priceTicks;
+	private int size;
+
+	/**
+  	 * Constructor.
+  	 * @param priceScale the scale of the prices, a price being <code>priceTicks x 10^-priceScale</code>
+  	 * @param capacity the initial capacity of the batch
+  	 */
+	public TradeBatch(int priceScale, int capacity) {
+		Validate.isTrue(capacity > 0);
+		this.priceScale = priceScale;
+		epochNanos = new long[capacity];
+		stockIds = new int[capacity];
+		indicators = new byte[capacity];
+		quantities = new int[capacity];
+		priceTicks = new long[capacity];
+	}
+
+	/**
+  	 * Add a trade to the batch. The trade is validated when the batch gets recorded.
+  	 * @param epochNanos the instant when the trade was performed, as nanoseconds from the epoch
+  	 * @param stock
+  	 * @param tradeIndicator
+  	 * @param sharesQuantity the number of shares exchanged
+  	 * @param priceTicks the unscaled price of the shares
+  	 */
+	public void add(long epochNanos, Stock stock, TradeIndicator tradeIndicator, int sharesQuantity, long priceTicks) {
+		if(size == this.epochNanos.length) {
+			int capacity = size * 2;
+			this.epochNanos = Arrays.copyOf(this.epochNanos, capacity);
+			stockIds = Arrays.copyOf(stockIds, capacity);
+			indicators = Arrays.copyOf(indicators, capacity);
+			quantities = Arrays.copyOf(quantities, capacity);
+			this.priceTicks = Arrays.copyOf(this.priceTicks, capacity);
+		}
+		this.epochNanos[size] = epochNanos;
+		stockIds[size] = stock.id;
+		indicators[size] = (byte) tradeIndicator.ordinal();
+		quantities[size] = sharesQuantity;
+		this.priceTicks[size] = priceTicks;
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+  	 * Empty the batch, keeping its capacity.
+  	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+  	 * Sort the rows by time stamp, rows performed at the same instant keeping their order.
+  	 */
+	public void sortByTime() {
+		if(isOrderedByTime()) {
+			return;
+		}
+		int[] order = new int[size];
+		for(int i = 0; i < size; i++) {
+			order[i] = i;
+		}
+		mergeSort(order, new int[size], 0, size);
+		epochNanos = permute(epochNanos, order, new long[epochNanos.length]);
+		stockIds = permute(stockIds, order, new int[stockIds.length]);
+		indicators = permute(indicators, order, new byte[indicators.length]);
+		quantities = permute(quantities, order, new int[quantities.length]);
+		priceTicks = permute(priceTicks, order, new long[priceTicks.length]);
+	}
+
+	/**
+  	 * Order the rows by stock id and then by time stamp, without moving them, rows of a stock performed at the 
+  	 * same instant keeping their order, so that the rows of each stock can be read in time order straight from
+  	 * the columns.
+  	 * @return the rows of the batch, in that order
+  	 */
+	public int[] rowsByStock() {
+		int[] order = new int[size];
+		int maxId = 0;
+		for(int i = 0; i < size; i++) {
+			order[i] = i;
+			maxId = Math.max(maxId, stockIds[i]);
+		}
+		if(!isOrderedByTime()) {
+			mergeSort(order, new int[size], 0, size);
+		}
+		// counting sort by stock id, stable, so that the rows of a stock stay in time order
+		int[] starts = new int[maxId + 2];
+		for(int i = 0; i < size; i++) {
+			starts[stockIds[i] + 1]++;
+		}
+		for(int id = 1; id < starts.length; id++) {
+			starts[id] += starts[id - 1];
+		}
+		int[] rows = new int[size];
+		for(int row: order) {
+			rows[starts[stockIds[row]]++] = row;
+		}
+		return rows;
+	}
+
+	private boolean isOrderedByTime() {
+		for(int row = 1; row < size; row++) {
+			if(epochNanos[row - 1] > epochNanos[row]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void mergeSort(int[] order, int[] buffer, int from, int to) {
+		if(to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(order, buffer, from, middle);
+		mergeSort(order, buffer, middle, to);
+		if(epochNanos[order[middle - 1]] <= epochNanos[order[middle]]) {
+			return;
+		}
+		System.arraycopy(order, from, buffer, from, to - from);
+		for(int i = from, left = from, right = middle; i < to; i++) {
+			if(right == to || left < middle && epochNanos[buffer[left]] <= epochNanos[buffer[right]]) {
+				order[i] = buffer[left++];
+			} else {
+				order[i] = buffer[right++];
+			}
+		}
+	}
+
+	private static long[] permute(long[] column, int[] order, long[] sorted) {
+		for(int i = 0; i < order.length; i++) {
+			sorted[i] = column[order[i]];
+		}
+		return sorted;
+	}
+
+	private static int[] permute(int[] column, int[] order, int[] sorted) {
+		for(int i = 0; i < order.length; i++) {
+			sorted[i] = column[order[i]];
+		}
+		return sorted;
+	}
+
+	private static byte[] permute(byte[] column, int[] order, byte[] sorted) {
+		for(int i = 0; i < order.length; i++) {
+			sorted[i] = column[order[i]];
+		}
+		return sorted;
+	}
+
+	public long getEpochNanos(int row) {
+		checkRow(row);
+		return epochNanos[row];
+	}
+
+	public Stock getStock(int row) {
+		checkRow(row);
+		return Stock.byId(stockIds[row]);
+	}
+
+	public int getStockId(int row) {
+		checkRow(row);
+		return stockIds[row];
+	}
+
+	public TradeIndicator getTradeIndicator(int row) {
+		checkRow(row);
+		return INDICATORS[indicators[row]];
+	}
+
+	public int getSharesQuantity(int row) {
+		checkRow(row);
+		return quantities[row];
+	}
+
+	public long getPriceTicks(int row) {
+		checkRow(row);
+		return priceTicks[row];
+	}
+
+	/**
+  	 * Create the trade object of a row of the batch.
+  	 * @param row the row
+  	 * @return the trade object
+  	 * @throws IllegalArgumentException if the row does not hold a valid trade
+  	 */
+	public Trade getTrade(int row) {
+		Instant timestamp = Instant.ofEpochSecond(0, getEpochNanos(row));
+		if(getTradeIndicator(row) == TradeIndicator.BUY) {
+			return Trade.buy(timestamp, getStock(row), quantities[row], priceTicks[row], priceScale);
+		}
+		return Trade.sell(timestamp, getStock(row), quantities[row], priceTicks[row], priceScale);
+	}
+
+	private void checkRow(int row) {
+		if(row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException(Integer.toString(row));
+		}
+	}
+}
@@ -1,24 +1,50 @@
 package com.jpmorgan;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.math.BigDecimal;
 import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.ZoneOffset;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.ObjectName;
 
 import org.junit.Before;
 import org.junit.Test;
 
 import com.jpmorgan.StockExchange.DuplicateTickerException;
+import com.jpmorgan.StockExchange.LateTradeException;
 import com.jpmorgan.StockExchange.NotEnoughDataPointsException;
 import com.jpmorgan.StockExchange.TickerNotFoundException;
+import com.jpmorgan.archive.FileTradeArchive;
+import com.jpmorgan.model.Bar;
+import com.jpmorgan.model.MarketSnapshot;
+import com.jpmorgan.model.OrderFlow;
 import com.jpmorgan.model.Stock;
+import com.jpmorgan.model.StockUpdate;
 import com.jpmorgan.model.Ticker;
 import com.jpmorgan.model.Ticker.EPSNotAvailableException;
 import com.jpmorgan.model.Ticker.TickerPriceNotAvailableException;
 import com.jpmorgan.model.Trade;
+import com.jpmorgan.model.TradeBatch;
 
 /**
  * Unit tests for the class {@link StockExchange}
@@ -39,6 +65,97 @@ public class StockExchangeTest {
 		stockExchange.registerTicker(new Ticker(Stock.TEA_C, BigDecimal.ONE, BigDecimal.ONE));
 	}
 	
+	@Test
+	public void runtimeStockRegistrationTest() throws DuplicateTickerException, TickerNotFoundException, NotEnoughDataPointsException {
+		int count = Stock.count();
+		Stock[] stocks = new Stock[100];
+		for(int i = 0; i < stocks.length; i++) {
+			stocks[i] = Stock.register("RT" + count + "_" + i, Stock.Type.COMMON);
+			assertEquals(count + i, stocks[i].id);
+			assertTrue(stocks[i] == Stock.of(stocks[i].symbol));
+			assertTrue(stocks[i] == Stock.byId(stocks[i].id));
+			stockExchange.registerTicker(new Ticker(stocks[i], BigDecimal.ONE, BigDecimal.ONE));
+		}
+		assertTrue(Stock.TEA_C == Stock.register("TEA", Stock.Type.COMMON));
+		
+		Instant timestamp = Instant.now();
+		for(int i = 0; i < stocks.length; i++) {
+			stockExchange.recordTrade(Trade.buy(timestamp, stocks[i], 1, BigDecimal.valueOf(i + 1)));
+		}
+		assertTrue(BigDecimal.valueOf(42).compareTo(stockExchange.getStockPrice(stocks[41])) == 0);
+	}
+	
+	@Test
+	public void recordTradesTest() throws TickerNotFoundException, NotEnoughDataPointsException, TickerPriceNotAvailableException {
+		InstantPacer pacer = new InstantPacer();
+		List<Trade> batch = new ArrayList<>();
+		batch.add(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), Stock.TEA_C, 1, BigDecimal.valueOf(2.0)));
+		batch.add(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), Stock.POP_C, 1, BigDecimal.valueOf(5.0)));
+		batch.add(Trade.sell(pacer.getInstantAndIncrementBySeconds(1), Stock.TEA_C, 3, BigDecimal.valueOf(4.0)));
+		stockExchange.recordTrades(batch);
+		
+		assertEquals(3, stockExchange.getLatestTrades(pacer.getInstant(), 1).size());
+		assertTrue(BigDecimal.valueOf(3.5).compareTo(stockExchange.getStockPrice(Stock.TEA_C)) == 0);
+		assertTrue(TestStockExchange.POP_C_LAST_DIVIDEND.divide(BigDecimal.valueOf(5.0), MATH_CTX)
+				.compareTo(stockExchange.getStockDividendYield(Stock.POP_C)) == 0);
+		
+		TradeBatch columns = new TradeBatch(2, 1);
+		long epochNanos = pacer.getInstantAndIncrementBySeconds(1).getEpochSecond() * 1_000_000_000L;
+		columns.add(epochNanos, Stock.ALE_C, Trade.TradeIndicator.BUY, 2, 150);
+		columns.add(epochNanos, Stock.ALE_C, Trade.TradeIndicator.SELL, 2, 250);
+		stockExchange.recordTrades(columns);
+		assertTrue(BigDecimal.valueOf(2.0).compareTo(stockExchange.getStockPrice(Stock.ALE_C)) == 0);
+		assertTrue(BigDecimal.valueOf(23.0).divide(BigDecimal.valueOf(2.5), MATH_CTX)
+				.compareTo(stockExchange.getStockDividendYield(Stock.ALE_C)) == 0);
+		
+		// a columnar batch out of time order is recorded as the same trades recorded as objects
+		StockExchange objects = new TestStockExchange();
+		columns.clear();
+		long start = pacer.getInstantAndIncrementBySeconds(10).getEpochSecond() * 1_000_000_000L;
+		columns.add(start + 3_000_000_000L, Stock.GIN_P, Trade.TradeIndicator.SELL, 4, 900);
+		columns.add(start, Stock.JOE_C, Trade.TradeIndicator.BUY, 1, 1200);
+		columns.add(start + 1_000_000_000L, Stock.GIN_P, Trade.TradeIndicator.BUY, 2, 1100);
+		columns.add(start + 3_000_000_000L, Stock.JOE_C, Trade.TradeIndicator.SELL, 3, 1300);
+		columns.add(start, Stock.GIN_P, Trade.TradeIndicator.BUY, 5, 1000);
+		List<Trade> trades = new ArrayList<>();
+		for(int row = 0; row < columns.size(); row++) {
+			trades.add(columns.getTrade(row));
+		}
+		stockExchange.recordTrades(columns);
+		objects.recordTrades(trades);
+		Instant end = Instant.ofEpochSecond(0, start + 4_000_000_000L);
+		List<Trade> expected = new ArrayList<>(objects.getLatestTrades(end, Duration.ofSeconds(5)));
+		List<Trade> recorded = new ArrayList<>(stockExchange.getLatestTrades(end, Duration.ofSeconds(5)));
+		Comparator<Trade> order = Comparator.comparing((Trade trade) -> trade.timestamp).thenComparingInt(trade -> trade.stock.id);
+		expected.sort(order);
+		recorded.sort(order);
+		assertEquals(expected.size(), recorded.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).timestamp, recorded.get(i).timestamp);
+			assertSame(expected.get(i).stock, recorded.get(i).stock);
+			assertEquals(expected.get(i).sharesQuantity, recorded.get(i).sharesQuantity);
+			assertEquals(expected.get(i).price, recorded.get(i).price);
+		}
+		for(Stock stock: new Stock[] {Stock.GIN_P, Stock.JOE_C}) {
+			assertEquals(objects.getStockPrice(stock), stockExchange.getStockPrice(stock));
+			assertEquals(objects.getStockDividendYield(stock), stockExchange.getStockDividendYield(stock));
+		}
+	}
+	
+	@Test
+	public void recordTradesFailureTest() {
+		Stock unregistered = Stock.register("UNREGISTERED", Stock.Type.COMMON);
+		List<Trade> batch = new ArrayList<>();
+		batch.add(Trade.buy(Stock.TEA_C, 1, BigDecimal.ONE));
+		batch.add(Trade.buy(unregistered, 1, BigDecimal.ONE));
+		try {
+			stockExchange.recordTrades(batch);
+			fail();
+		} catch (TickerNotFoundException e) {
+			assertEquals(0, stockExchange.getLatestTrades(60).size());
+		}
+	}
+	
 	@Test
 	public void latestTradesTest() throws TickerNotFoundException {
 		InstantPacer pacer = new InstantPacer();
@@ -55,6 +172,17 @@ public class StockExchangeTest {
 		assertEquals(2, stockExchange.getLatestTrades(current, 5).size());
 	}
 	
+	@Test
+	public void sameTimestampTradesTest() throws NotEnoughDataPointsException, TickerNotFoundException {
+		Instant timestamp = Instant.now();
+		stockExchange.recordTrade(Trade.buy(timestamp, Stock.ALE_C, 1, BigDecimal.valueOf(2.0)));
+		stockExchange.recordTrade(Trade.sell(timestamp, Stock.ALE_C, 1, BigDecimal.valueOf(4.0)));
+		stockExchange.recordTrade(Trade.buy(timestamp, Stock.TEA_C, 1, BigDecimal.valueOf(8.0)));
+		
+		assertEquals(3, stockExchange.getLatestTrades(timestamp, 1).size());
+		assertTrue(stockExchange.getStockPrice(Stock.ALE_C, timestamp, 1).compareTo(BigDecimal.valueOf(3.0)) == 0);
+	}
+	
 	@Test(expected=NotEnoughDataPointsException.class)
 	public void stockPriceExceptionTest() throws NotEnoughDataPointsException {
 		stockExchange.getStockPrice(Stock.ALE_C);
@@ -77,6 +205,475 @@ public class StockExchangeTest {
 		assertTrue(stockExchange.getStockPrice(theStock).compareTo(BigDecimal.valueOf(3.5)) == 0);
 	}
 	
+	@Test
+	public void stockPriceWindowTest() throws NotEnoughDataPointsException, TickerNotFoundException {
+		InstantPacer pacer = new InstantPacer();
+		for(int i = 0; i < 2000; i++) {
+			Stock stock = i % 3 == 0 ? Stock.TEA_C : Stock.ALE_C;
+			BigDecimal price = BigDecimal.valueOf(100 + (i * 37) % 51, 1);
+			stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementByMillis(700), stock, 1 + i % 7, price));
+		}
+		Instant latest = pacer.getInstant();
+		for(Instant timestamp: new Instant[] { latest, latest.minusMillis(350), latest.minusSeconds(200), latest.minusSeconds(900) }) {
+			for(Stock stock: new Stock[] { Stock.TEA_C, Stock.ALE_C }) {
+				BigDecimal expected = stockExchange.getLatestTrades(timestamp, 15).stream().filter( trade -> trade.stock == stock )
+						.collect(StockExchange.Accumulator::new, StockExchange.Accumulator::accumulate, StockExchange.Accumulator::combine)
+						.getWeightedAverage();
+				assertTrue(expected.compareTo(stockExchange.getStockPrice(stock, timestamp, 15)) == 0);
+			}
+		}
+	}
+	
+	@Test
+	public void stockPriceWindowsTest() throws NotEnoughDataPointsException, TickerNotFoundException {
+		Instant latest = Instant.now().truncatedTo(ChronoUnit.HOURS);
+		List<Trade> recorded = new ArrayList<>();
+		for(Instant timestamp = latest.minus(3, ChronoUnit.HOURS); !timestamp.isAfter(latest); timestamp = timestamp.plusSeconds(30)) {
+			int i = recorded.size();
+			Trade trade = Trade.buy(timestamp, Stock.JOE_C, 1 + i % 5, BigDecimal.valueOf(1 + i % 9));
+			stockExchange.recordTrade(trade);
+			recorded.add(trade);
+		}
+		// the buckets are exact to the second within 17 minutes, to the minute within 2 hours, to the hour beyond, 
+		// the trades of the bucket the window starts in being read from the trades retained
+		assertEquals(weightedAverageFrom(recorded, latest.minusSeconds(60 - 1)), stockExchange.getStockPrice(Stock.JOE_C, latest, Duration.ofMinutes(1)));
+		assertEquals(weightedAverageFrom(recorded, latest.minusSeconds(5 * 60 - 1)), stockExchange.getStockPrice(Stock.JOE_C, latest, Duration.ofMinutes(5)));
+		assertEquals(weightedAverageFrom(recorded, latest.minusSeconds(15 * 60 - 1)), stockExchange.getStockPrice(Stock.JOE_C, latest, Duration.ofMinutes(15)));
+		assertEquals(weightedAverageFrom(recorded, latest.minusSeconds(60 * 60 - 1)), stockExchange.getStockPrice(Stock.JOE_C, latest, Duration.ofMinutes(60)));
+		assertEquals(weightedAverageFrom(recorded, latest.minusSeconds(150 * 60 - 1)), stockExchange.getStockPrice(Stock.JOE_C, latest, Duration.ofMinutes(150)));
+		assertEquals(weightedAverageFrom(recorded, latest.minusSeconds(15 * 60 - 1)), stockExchange.getStockPrice(Stock.JOE_C, latest.plusMillis(100), Duration.ofMinutes(15)));
+		
+		assertEquals(weightedAverageFrom(recorded, Instant.MIN), stockExchange.getSessionStockPrice(Stock.JOE_C));
+		stockExchange.startSession();
+		stockExchange.recordTrade(Trade.buy(latest, Stock.JOE_C, 2, BigDecimal.valueOf(7.0)));
+		assertTrue(BigDecimal.valueOf(7.0).compareTo(stockExchange.getSessionStockPrice(Stock.JOE_C)) == 0);
+	}
+	
+	@Test
+	public void stockPriceWindowBoundaryTest() throws NotEnoughDataPointsException, TickerNotFoundException {
+		Instant now = Instant.now().truncatedTo(ChronoUnit.SECONDS).plusMillis(500);
+		stockExchange.setClock(Clock.fixed(now, ZoneOffset.UTC));
+		// performed in the second the window starts in, after its start
+		stockExchange.recordTrade(Trade.buy(now.minus(StockExchange.PRICE_WINDOW).plusMillis(200), Stock.JOE_C, 3, BigDecimal.valueOf(10.0)));
+		stockExchange.recordTrade(Trade.buy(now.minusSeconds(60), Stock.JOE_C, 1, BigDecimal.valueOf(50.0)));
+		assertTrue(BigDecimal.valueOf(20.0).compareTo(stockExchange.getStockPrice(Stock.JOE_C)) == 0);
+		assertEquals(stockExchange.getStockPrice(Stock.JOE_C), stockExchange.getStockPrice(Stock.JOE_C, StockExchange.PRICE_WINDOW));
+		assertEquals(stockExchange.getStockPrice(Stock.JOE_C), stockExchange.getStockPrice(Stock.JOE_C, Duration.ofMinutes(60)));
+	}
+	
+	@Test
+	public void outOfOrderTradeStoreTest() throws TickerNotFoundException, NotEnoughDataPointsException {
+		Instant base = Instant.now().minusSeconds(2000).truncatedTo(ChronoUnit.SECONDS).plusMillis(500);
+		List<Trade> recorded = new ArrayList<>();
+		for(int k = 1999; k >= 0; k--) {
+			Trade trade = Trade.buy(base.plusSeconds(k), Stock.JOE_C, k % 3 + 1, BigDecimal.valueOf(k % 7 + 1));
+			stockExchange.recordTrade(trade);
+			recorded.add(trade);
+		}
+		Instant latest = base.plusSeconds(1999);
+		assertEquals(weightedAverageFrom(recorded, latest.minusSeconds(300).plusNanos(1)), stockExchange.getStockPrice(Stock.JOE_C, latest, Duration.ofMinutes(5)));
+		assertEquals(1999, stockExchange.getLatestTrades(latest, Duration.ofSeconds(1999)).size());
+		
+		List<Trade> archived = new ArrayList<>();
+		stockExchange.setRetentionPolicy(new RetentionPolicy(Duration.ofMinutes(15), archived::addAll));
+		assertEquals(1099, stockExchange.evictTrades());
+		assertEquals(1099, archived.size());
+		for(int k = 0; k < archived.size(); k++) {
+			assertEquals(base.plusSeconds(k), archived.get(k).timestamp);
+		}
+		assertEquals(901, stockExchange.getLatestTrades(latest, Duration.ofHours(1)).size());
+	}
+	
+	private static BigDecimal weightedAverageFrom(List<Trade> trades, Instant from) {
+		BigDecimal amount = BigDecimal.ZERO;
+		long quantity = 0;
+		for(Trade trade: trades) {
+			if(!trade.timestamp.isBefore(from)) {
+				amount = amount.add(BigDecimal.valueOf(trade.sharesQuantity).multiply(trade.price, MATH_CTX));
+				quantity += trade.sharesQuantity;
+			}
+		}
+		return amount.divide(BigDecimal.valueOf(quantity), MATH_CTX);
+	}
+	
+	@Test
+	public void barsTest() throws TickerNotFoundException {
+		assertTrue(stockExchange.addBars(Stock.ALE_C, Duration.ofMinutes(1), 60));
+		assertTrue(!stockExchange.addBars(Stock.ALE_C, Duration.ofMinutes(1), 60));
+		Instant start = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(10, ChronoUnit.MINUTES);
+		stockExchange.recordTrade(Trade.buy(start.plusSeconds(1), Stock.ALE_C, 1, BigDecimal.valueOf(5.0)));
+		stockExchange.recordTrade(Trade.buy(start.plusSeconds(10), Stock.ALE_C, 2, BigDecimal.valueOf(7.0)));
+		stockExchange.recordTrade(Trade.sell(start.plusSeconds(20), Stock.ALE_C, 1, BigDecimal.valueOf(3.0)));
+		stockExchange.recordTrade(Trade.sell(start.plusSeconds(30), Stock.ALE_C, 1, BigDecimal.valueOf(6.0)));
+		stockExchange.recordTrade(Trade.buy(start.plusSeconds(150), Stock.ALE_C, 3, BigDecimal.valueOf(4.0)));
+		// a late trade of the first bar
+		stockExchange.recordTrade(Trade.buy(start.plusSeconds(5), Stock.ALE_C, 1, BigDecimal.valueOf(8.0)));
+		
+		assertEquals(1, stockExchange.getBars(Stock.ALE_C, Duration.ofMinutes(1), start.plusSeconds(150)).size());
+		List<Bar> bars = stockExchange.getBars(Stock.ALE_C, Duration.ofMinutes(1), start.plusSeconds(180));
+		assertEquals(2, bars.size());
+		Bar bar = bars.get(0);
+		assertEquals(start, bar.start);
+		assertTrue(BigDecimal.valueOf(5.0).compareTo(bar.open) == 0);
+		assertTrue(BigDecimal.valueOf(8.0).compareTo(bar.high) == 0);
+		assertTrue(BigDecimal.valueOf(3.0).compareTo(bar.low) == 0);
+		assertTrue(BigDecimal.valueOf(6.0).compareTo(bar.close) == 0);
+		assertEquals(6, bar.volume);
+		assertTrue(BigDecimal.valueOf(36.0 / 6).compareTo(bar.vwap) == 0);
+		assertEquals(start.plusSeconds(120), bars.get(1).start);
+		assertEquals(3, bars.get(1).volume);
+		assertEquals(bars.size(), stockExchange.getBars(Stock.ALE_C, Duration.ofMinutes(1)).size());
+	}
+	
+	@Test
+	public void retentionTest() throws NotEnoughDataPointsException, TickerNotFoundException {
+		List<Trade> archived = new ArrayList<>();
+		stockExchange.setRetentionPolicy(new RetentionPolicy(Duration.ofMinutes(15), archived::addAll));
+		InstantPacer pacer = new InstantPacer();
+		for(int i = 0; i < 3600; i++) {
+			stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), Stock.TEA_C, 1 + i % 5, BigDecimal.valueOf(1 + i % 9)));
+		}
+		Instant latest = pacer.getInstant();
+		int retained = stockExchange.getLatestTrades(latest, 120).size();
+		assertTrue(retained <= 17 * 60);
+		assertEquals(3600, retained + archived.size());
+		
+		assertEquals(retained - (15 * 60 + 1), stockExchange.evictTrades());
+		assertEquals(15 * 60 + 1, stockExchange.getLatestTrades(latest, 120).size());
+		assertEquals(3600, stockExchange.getLatestTrades(latest, 120).size() + archived.size());
+		for(int i = 1; i < archived.size(); i++) {
+			assertTrue(archived.get(i - 1).timestamp.isBefore(archived.get(i).timestamp));
+		}
+	}
+	
+	@Test
+	public void journalReplayTest() throws Exception {
+		Path path = Files.createTempFile("trades", ".journal");
+		try {
+			RetentionPolicy retentionPolicy = new RetentionPolicy(Duration.ofMinutes(15));
+			InstantPacer pacer = new InstantPacer();
+			StockExchange journaled = new StockExchange();
+			journaled.setRetentionPolicy(retentionPolicy);
+			try(TradeJournal journal = new TradeJournal(path, TradeJournal.MIN_REGION_SIZE)) {
+				journaled.setJournal(journal);
+				Ticker gin = new Ticker(Stock.GIN_P, BigDecimal.valueOf(8.0), BigDecimal.valueOf(0.02), BigDecimal.valueOf(100.0));
+				journaled.registerTicker(gin);
+				journaled.registerTicker(new Ticker(Stock.TEA_C, BigDecimal.valueOf(5.0), BigDecimal.valueOf(100.0)));
+				journaled.recordTrade(Trade.buy(pacer.getInstant(), Stock.GIN_P, 2, BigDecimal.valueOf(10.0)));
+				// a late trade is journaled after the latest trade in time, its price must not be restored
+				journaled.recordTrade(Trade.buy(pacer.getInstant().minusSeconds(1), Stock.GIN_P, 2, BigDecimal.valueOf(12.0)));
+				// enough trades to span several regions of the journal
+				for(int i = 0; i < 40000; i++) {
+					journaled.recordTrade(Trade.sell(pacer.getInstantAndIncrementByMillis(50), Stock.TEA_C, 1 + i % 7, BigDecimal.valueOf(1 + i % 11)));
+				}
+				journaled.updateTicker(new Ticker(Stock.GIN_P, BigDecimal.valueOf(8.0), BigDecimal.valueOf(0.02), BigDecimal.valueOf(200.0)));
+			}
+			journaled.setJournal(null);
+			
+			StockExchange replayed = new StockExchange();
+			replayed.setRetentionPolicy(retentionPolicy);
+			try(TradeJournal journal = new TradeJournal(path)) {
+				assertEquals(15 * 60 * 20 + 1, replayed.replay(journal));
+				replayed.setJournal(journal);
+				replayed.recordTrade(Trade.buy(pacer.getInstant(), Stock.TEA_C, 1, BigDecimal.valueOf(3.0)));
+				journaled.recordTrade(Trade.buy(pacer.getInstant(), Stock.TEA_C, 1, BigDecimal.valueOf(3.0)));
+			}
+			Instant latest = pacer.getInstant();
+			assertEquals(journaled.getStockPrice(Stock.TEA_C, latest, 15), replayed.getStockPrice(Stock.TEA_C, latest, 15));
+			assertEquals(journaled.getStockPriceEarningsRatio(Stock.TEA_C), replayed.getStockPriceEarningsRatio(Stock.TEA_C));
+			assertEquals(journaled.getStockDividendYield(Stock.GIN_P), replayed.getStockDividendYield(Stock.GIN_P));
+			try(TradeJournal journal = new TradeJournal(path)) {
+				assertEquals(latest, journal.getLastTradeTimestamp());
+			}
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	public void journalExactlyFullRegionTest() throws Exception {
+		Path path = Files.createTempFile("trades", ".journal");
+		try {
+			// a 34 bytes symbol makes the stock record as long as a trade record: 30839 trades fill the first region
+			Stock stock = Stock.register("EXACTLY_FULL_REGION_JOURNAL_SYMBOL", Stock.Type.COMMON);
+			Instant now = Instant.now();
+			int trades = 30839;
+			try(TradeJournal journal = new TradeJournal(path, TradeJournal.MIN_REGION_SIZE)) {
+				for(int i = 0; i < trades; i++) {
+					journal.append(Trade.buy(now, stock, 1, BigDecimal.ONE));
+				}
+			}
+			assertEquals(TradeJournal.MIN_REGION_SIZE, Files.size(path));
+			try(TradeJournal journal = new TradeJournal(path)) {
+				journal.append(Trade.sell(now.plusSeconds(1), stock, 2, BigDecimal.ONE));
+			}
+			assertEquals(2 * TradeJournal.MIN_REGION_SIZE, Files.size(path));
+			List<Trade> replayed = new ArrayList<>();
+			try(TradeJournal journal = new TradeJournal(path)) {
+				assertEquals(now.plusSeconds(1), journal.getLastTradeTimestamp());
+				journal.replay(null, new TradeJournal.Replay() {
+					@Override
+					public void ticker(Ticker ticker) {
+					}
+					
+					@Override
+					public void trade(Trade trade) {
+						replayed.add(trade);
+					}
+					
+					@Override
+					public void tickerPrice(Stock stock, Instant timestamp, BigDecimal price) {
+					}
+				});
+			}
+			assertEquals(trades + 1, replayed.size());
+			assertEquals(2, replayed.get(trades).sharesQuantity);
+		} finally {
+			Files.delete(path);
+		}
+	}
+	
+	@Test
+	public void tradeStoreOrderTest() throws IOException {
+		TradeStore store = new TradeStore();
+		List<Trade> expected = new ArrayList<>();
+		Stock[] stocks = { Stock.TEA_C, Stock.POP_C, Stock.ALE_C };
+		Instant base = Instant.now();
+		Random random = new Random(42);
+		for(int round = 0; round < 60; round++) {
+			Trade[] batch = new Trade[100];
+			for(int i = 0; i < batch.length; i++) {
+				// the quantity identifies the trade, several trades of different stocks share each instant
+				Instant timestamp = base.plusMillis(round * 100 + random.nextInt(30) * 10);
+				batch[i] = Trade.buy(timestamp, stocks[i % stocks.length], round * batch.length + i + 1, BigDecimal.ONE);
+			}
+			if(round % 2 == 0) {
+				store.addAll(batch);
+			} else {
+				for(Trade trade: batch) {
+					store.add(trade);
+				}
+			}
+			expected.addAll(Arrays.asList(batch));
+			if(round % 10 == 9) {
+				Instant horizon = base.plusMillis(round * 100 - 500);
+				store.evict(horizon, null);
+				expected.removeIf(trade -> trade.timestamp.isBefore(horizon));
+			}
+		}
+		// stable, in arrival order for the trades of a stock performed at the same instant
+		expected.sort(Comparator.<Trade, Instant>comparing(trade -> trade.timestamp).thenComparingInt(trade -> trade.stock.id));
+		List<Trade> stored = store.after(base.minusSeconds(1));
+		assertEquals(expected.size(), stored.size());
+		for(int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.get(i).timestamp, stored.get(i).timestamp);
+			assertEquals(expected.get(i).sharesQuantity, stored.get(i).sharesQuantity);
+		}
+		
+		// the trades handed over to an archive which fails are put back
+		try {
+			store.evict(base.plusSeconds(10), trades -> {
+				throw new IOException("archive full");
+			});
+			fail();
+		} catch (IOException e) {
+			assertEquals("archive full", e.getMessage());
+		}
+		assertEquals(expected.size(), store.after(base.minusSeconds(1)).size());
+		assertEquals(expected.get(0).timestamp, store.first());
+	}
+	
+	@Test
+	public void snapshotTest() throws TickerNotFoundException, NotEnoughDataPointsException, TickerPriceNotAvailableException, EPSNotAvailableException {
+		assertTrue(!new StockExchange().snapshot().isIndexAvailable());
+		
+		InstantPacer pacer = new InstantPacer();
+		stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementByMillis(100), Stock.TEA_C, 2, BigDecimal.valueOf(3.0)));
+		stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementByMillis(100), Stock.POP_C, 1, BigDecimal.valueOf(5.0)));
+		stockExchange.recordTrade(Trade.sell(pacer.getInstantAndIncrementByMillis(100), Stock.TEA_C, 1, BigDecimal.valueOf(6.0)));
+		MarketSnapshot snapshot = stockExchange.snapshot();
+		
+		int tea = snapshot.rowOf(Stock.TEA_C);
+		assertEquals(Stock.TEA_C, snapshot.getStock(tea));
+		assertEquals(stockExchange.getStockPrice(Stock.TEA_C), snapshot.getPrice(tea));
+		assertEquals(stockExchange.getStockDividendYield(Stock.TEA_C), snapshot.getDividendYield(tea));
+		assertTrue(!snapshot.isPriceEarningsRatioAvailable(tea));
+		int pop = snapshot.rowOf(Stock.POP_C);
+		assertEquals(stockExchange.getStockPrice(Stock.POP_C), snapshot.getPrice(pop));
+		assertEquals(stockExchange.getStockPriceEarningsRatio(Stock.POP_C), snapshot.getPriceEarningsRatio(pop));
+		int joe = snapshot.rowOf(Stock.JOE_C);
+		assertTrue(!snapshot.isPriceAvailable(joe));
+		assertTrue(!snapshot.isDividendYieldAvailable(joe));
+		assertEquals(stockExchange.getGBCEAllShareIndex(), snapshot.getIndex());
+	}
+	
+	@Test
+	public void subscriptionTest() throws TickerNotFoundException, NotEnoughDataPointsException, TickerPriceNotAvailableException {
+		List<Runnable> deliveries = new ArrayList<>();
+		List<StockUpdate> updates = new ArrayList<>();
+		List<BigDecimal> indexes = new ArrayList<>();
+		Subscription subscription = stockExchange.subscribe(new MarketListener() {
+			@Override
+			public void onStockUpdate(StockUpdate update) {
+				updates.add(update);
+			}
+			
+			@Override
+			public void onIndexUpdate(BigDecimal index) {
+				indexes.add(index);
+			}
+		}, deliveries::add);
+		
+		InstantPacer pacer = new InstantPacer();
+		for(int i = 1; i <= 3; i++) {
+			stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), Stock.TEA_C, i, BigDecimal.valueOf(i)));
+		}
+		stockExchange.recordTrade(Trade.sell(pacer.getInstantAndIncrementBySeconds(1), Stock.POP_C, 1, BigDecimal.valueOf(4.0)));
+		assertEquals(1, deliveries.size());
+		deliveries.remove(0).run();
+		
+		// the three trades of TEA are coalesced into a single update
+		assertEquals(2, updates.size());
+		StockUpdate tea = updates.get(0).stock == Stock.TEA_C ? updates.get(0) : updates.get(1);
+		assertEquals(stockExchange.getStockPrice(Stock.TEA_C), tea.price);
+		assertEquals(stockExchange.getStockDividendYield(Stock.TEA_C), tea.dividendYield);
+		assertEquals(null, tea.priceEarningsRatio);
+		assertEquals(1, indexes.size());
+		assertEquals(stockExchange.getGBCEAllShareIndex(), indexes.get(0));
+		
+		subscription.cancel();
+		stockExchange.recordTrade(Trade.sell(pacer.getInstant(), Stock.POP_C, 1, BigDecimal.valueOf(4.0)));
+		assertTrue(deliveries.isEmpty());
+	}
+	
+	@Test
+	public void listenerFailureTest() throws TickerNotFoundException, NotEnoughDataPointsException {
+		ExchangeMetrics metrics = new ExchangeMetrics();
+		stockExchange.setMetrics(metrics);
+		stockExchange.subscribe(new MarketListener() {
+			@Override
+			public void onStockUpdate(StockUpdate update) {
+				throw new IllegalStateException();
+			}
+			
+			@Override
+			public void onIndexUpdate(BigDecimal index) {
+				throw new IllegalStateException();
+			}
+		}, Runnable::run);
+		
+		// the failures of the listener, delivered by the recording thread, do not fail the recording
+		stockExchange.recordTrade(Trade.buy(Stock.TEA_C, 2, BigDecimal.TEN));
+		stockExchange.recordTrade(Trade.buy(Stock.TEA_C, 2, BigDecimal.ONE));
+		assertEquals(2, metrics.getTradesRecorded());
+		assertEquals(4, metrics.getListenerFailures());
+		assertEquals(new BigDecimal("5.5"), stockExchange.getStockPrice(Stock.TEA_C));
+	}
+	
+	@Test
+	public void concurrentRecordTradeTest() throws Exception {
+		Stock[] stocks = { Stock.TEA_C, Stock.POP_C, Stock.ALE_C, Stock.GIN_P };
+		Instant start = Instant.now();
+		int tradesPerStock = 20000;
+		List<Thread> threads = new ArrayList<>();
+		List<Throwable> failures = new ArrayList<>();
+		for(int t = 0; t < stocks.length; t++) {
+			Stock stock = stocks[t];
+			int offset = t;
+			Thread thread = new Thread(() -> {
+				try {
+					for(int i = 0; i < tradesPerStock; i++) {
+						stockExchange.recordTrade(Trade.buy(start.plusNanos(i * stocks.length + offset), stock, 1 + i % 3, BigDecimal.valueOf(2 + offset)));
+						if(i % 1000 == 0) {
+							stockExchange.getGBCEAllShareIndex();
+						}
+					}
+				} catch (Throwable e) {
+					synchronized (failures) {
+						failures.add(e);
+					}
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		for(Thread thread: threads) {
+			thread.join();
+		}
+		assertTrue(failures.isEmpty());
+		assertEquals(stocks.length * tradesPerStock, stockExchange.getLatestTrades(start, 1).size());
+		for(int t = 0; t < stocks.length; t++) {
+			assertTrue(BigDecimal.valueOf(2 + t).compareTo(stockExchange.getStockPrice(stocks[t])) == 0);
+		}
+	}
+	
+	@Test
+	public void fixedPointStockPriceTest() throws NotEnoughDataPointsException, TickerNotFoundException {
+		StockExchange fixedPointExchange = new TestStockExchange(new FixedPoint(4));
+		InstantPacer pacer = new InstantPacer();
+		BigDecimal amount = BigDecimal.ZERO;
+		long count = 0;
+		for(int i = 0; i < 1500; i++) {
+			long priceTicks = 1000 + (i * 7919) % 90000;
+			int quantity = 1 + i % 13;
+			Trade trade = i % 2 == 0 
+					? Trade.buy(pacer.getInstantAndIncrementByMillis(700), Stock.GIN_P, quantity, priceTicks, 4)
+					: Trade.sell(pacer.getInstantAndIncrementByMillis(700), Stock.GIN_P, quantity, BigDecimal.valueOf(priceTicks, 4));
+			fixedPointExchange.recordTrade(trade);
+			if(i >= 1500 - 15 * 60 * 10 / 7) {
+				amount = amount.add(trade.price.multiply(BigDecimal.valueOf(quantity)));
+				count += quantity;
+			}
+		}
+		BigDecimal expected = amount.divide(BigDecimal.valueOf(count), MATH_CTX);
+		assertTrue(expected.compareTo(fixedPointExchange.getStockPrice(Stock.GIN_P, pacer.getInstant(), 15)) == 0);
+	}
+	
+	@Test
+	public void fixedPointOverflowTest() throws NotEnoughDataPointsException, TickerNotFoundException {
+		StockExchange fixedPointExchange = new TestStockExchange(new FixedPoint(4));
+		Instant now = Instant.now();
+		fixedPointExchange.recordTrade(Trade.buy(now, Stock.GIN_P, 2, BigDecimal.TEN));
+		try {
+			fixedPointExchange.recordTrade(Trade.buy(now, Stock.GIN_P, 1000, Long.MAX_VALUE / 100, 2));
+			fail();
+		} catch (ArithmeticException e) {
+			// the trade is neither in the store nor in the book
+		}
+		assertEquals(1, fixedPointExchange.getLatestTrades(now, 1).size());
+		assertTrue(BigDecimal.TEN.compareTo(fixedPointExchange.getStockPrice(Stock.GIN_P)) == 0);
+		
+		try {
+			Trade.buy(now, Stock.GIN_P, 1, new BigDecimal("1.00000000000000000000001"));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// the price does not fit a long number of ticks
+		}
+		assertEquals(1, Trade.buy(now, Stock.GIN_P, 1, new BigDecimal("1.000000000000000000000")).priceTicks);
+	}
+	
+	@Test
+	public void exactPrecisionPolicyTest() throws NotEnoughDataPointsException, TickerNotFoundException, TickerPriceNotAvailableException {
+		MathContext resultContext = MathContext.DECIMAL64;
+		StockExchange exactExchange = new TestStockExchange(PrecisionPolicy.exact(resultContext));
+		InstantPacer pacer = new InstantPacer();
+		exactExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), Stock.GIN_P, 3, new BigDecimal("10.37")));
+		exactExchange.recordTrade(Trade.sell(pacer.getInstantAndIncrementBySeconds(1), Stock.GIN_P, 7, new BigDecimal("10.91")));
+		
+		BigDecimal expected = new BigDecimal("31.11").add(new BigDecimal("76.37")).divide(BigDecimal.TEN, resultContext);
+		assertTrue(expected.compareTo(exactExchange.getStockPrice(Stock.GIN_P, pacer.getInstant(), 15)) == 0);
+		assertTrue(defaultPolicyPriceOf(Stock.GIN_P, 3, "10.37", 7, "10.91").compareTo(expected) != 0);
+		assertTrue(new BigDecimal("2").divide(new BigDecimal("10.91"), resultContext)
+				.compareTo(exactExchange.getStockDividendYield(Stock.GIN_P)) == 0);
+	}
+	
+	private BigDecimal defaultPolicyPriceOf(Stock stock, int quantity1, String price1, int quantity2, String price2) throws NotEnoughDataPointsException, TickerNotFoundException {
+		InstantPacer pacer = new InstantPacer();
+		stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), stock, quantity1, new BigDecimal(price1)));
+		stockExchange.recordTrade(Trade.sell(pacer.getInstantAndIncrementBySeconds(1), stock, quantity2, new BigDecimal(price2)));
+		return stockExchange.getStockPrice(stock, pacer.getInstant(), 15);
+	}
+	
 	@Test(expected=TickerPriceNotAvailableException.class)
 	public void dividendYieldNoTradesTest() throws TickerNotFoundException, TickerPriceNotAvailableException {
 		stockExchange.getStockDividendYield(Stock.ALE_C);
@@ -104,6 +701,366 @@ public class StockExchangeTest {
 				compareTo(stockExchange.getStockDividendYield(theStock)) == 0);
 	}
 	
+	@Test
+	public void tickerRatiosCacheTest() throws TickerNotFoundException, TickerPriceNotAvailableException, EPSNotAvailableException {
+		InstantPacer pacer = new InstantPacer();
+		stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), Stock.GIN_P, 1, BigDecimal.valueOf(4.0)));
+		BigDecimal dividendYield = stockExchange.getStockDividendYield(Stock.GIN_P);
+		assertTrue(dividendYield == stockExchange.getStockDividendYield(Stock.GIN_P));
+		BigDecimal priceEarningsRatio = stockExchange.getStockPriceEarningsRatio(Stock.GIN_P);
+		assertTrue(priceEarningsRatio == stockExchange.getStockPriceEarningsRatio(Stock.GIN_P));
+		
+		stockExchange.recordTrade(Trade.buy(pacer.getInstantAndIncrementBySeconds(1), Stock.GIN_P, 1, BigDecimal.valueOf(5.0)));
+		assertTrue(TestStockExchange.GIN_P_FIXED_DIVIDEND.multiply(TestStockExchange.GIN_P_PAR_VALUE, MATH_CTX).divide(BigDecimal.valueOf(5.0), MATH_CTX)
+				.compareTo(stockExchange.getStockDividendYield(Stock.GIN_P)) == 0);
+		assertTrue(BigDecimal.valueOf(5.0).divide(BigDecimal.valueOf(8.0), MATH_CTX).compareTo(stockExchange.getStockPriceEarningsRatio(Stock.GIN_P)) == 0);
+	}
+	
+	@Test
+	public void optionalResultsTest() throws TickerNotFoundException, NotEnoughDataPointsException {
+		assertFalse(stockExchange.findStockPrice(Stock.TEA_C).isPresent());
+		assertFalse(stockExchange.findStockDividendYield(Stock.TEA_C).isPresent());
+		assertFalse(stockExchange.findStockPriceEarningsRatio(Stock.TEA_C).isPresent());
+		assertFalse(stockExchange.findGBCEAllShareIndex().isPresent());
+		
+		stockExchange.recordTrade(Trade.buy(Instant.now(), Stock.TEA_C, 1, BigDecimal.valueOf(4.0)));
+		assertTrue(stockExchange.findStockPrice(Stock.TEA_C).get().compareTo(stockExchange.getStockPrice(Stock.TEA_C)) == 0);
+		assertTrue(stockExchange.findStockDividendYield(Stock.TEA_C).isPresent());
+		assertTrue(stockExchange.findGBCEAllShareIndex().get().compareTo(stockExchange.getGBCEAllShareIndex()) == 0);
+	}
+	
+	@Test
+	public void shardedStockExchangeTest() throws DuplicateTickerException, TickerNotFoundException, NotEnoughDataPointsException {
+		try(ShardedStockExchange sharded = new ShardedStockExchange(3)) {
+			for(Stock stock: new Stock[] {Stock.TEA_C, Stock.POP_C, Stock.ALE_C, Stock.GIN_P, Stock.JOE_C}) {
+				sharded.registerTicker(new Ticker(stock, BigDecimal.ONE, BigDecimal.valueOf(100.0)));
+			}
+			assertFalse(sharded.findGBCEAllShareIndex().isPresent());
+			
+			Instant now = Instant.now();
+			List<Trade> trades = Arrays.asList(
+					Trade.buy(now, Stock.TEA_C, 2, BigDecimal.valueOf(3.0)),
+					Trade.sell(now, Stock.POP_C, 1, BigDecimal.valueOf(7.0)),
+					Trade.buy(now, Stock.ALE_C, 4, BigDecimal.valueOf(11.0)),
+					Trade.buy(now, Stock.GIN_P, 3, BigDecimal.valueOf(5.0)),
+					Trade.sell(now, Stock.JOE_C, 5, BigDecimal.valueOf(2.0)),
+					Trade.buy(now, Stock.TEA_C, 1, BigDecimal.valueOf(6.0)));
+			sharded.recordTrades(trades);
+			stockExchange.recordTrades(trades);
+			
+			assertTrue(sharded.getShard(Stock.TEA_C) != sharded.getShard(Stock.POP_C));
+			assertTrue(sharded.getStockPrice(Stock.TEA_C).compareTo(stockExchange.getStockPrice(Stock.TEA_C)) == 0);
+			assertEquals(stockExchange.getGBCEAllShareIndex().doubleValue(), sharded.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		}
+		
+		try(ShardedStockExchange sharded = new ShardedStockExchange(3, PrecisionPolicy.fixedPoint(new FixedPoint(4), MATH_CTX))) {
+			for(Stock stock: new Stock[] {Stock.TEA_C, Stock.POP_C}) {
+				sharded.registerTicker(new Ticker(stock, BigDecimal.ONE, BigDecimal.valueOf(100.0)));
+			}
+			Instant now = Instant.now();
+			try {
+				sharded.recordTrades(Arrays.asList(
+						Trade.buy(now, Stock.TEA_C, 2, BigDecimal.valueOf(3.0)),
+						Trade.buy(now, Stock.POP_C, 1000, Long.MAX_VALUE / 100, 2)));
+				fail();
+			} catch (ArithmeticException e) {
+				// the batch is validated before any shard records its trades
+			}
+			assertFalse(sharded.findStockPrice(Stock.TEA_C).isPresent());
+		}
+	}
+	
+	@Test
+	public void metricsTest() throws Exception {
+		ExchangeMetrics metrics = new ExchangeMetrics();
+		stockExchange.setMetrics(metrics);
+		Instant now = Instant.now();
+		stockExchange.recordTrade(Trade.buy(now, Stock.TEA_C, 1, BigDecimal.valueOf(4.0)));
+		stockExchange.recordTrades(Arrays.asList(Trade.buy(now, Stock.POP_C, 1, BigDecimal.valueOf(4.0)),
+				Trade.sell(now, Stock.ALE_C, 2, BigDecimal.valueOf(5.0))));
+		try {
+			stockExchange.recordTrade(Trade.buy(now, Stock.register("MET", Stock.Type.COMMON), 1, BigDecimal.ONE));
+			fail();
+		} catch (TickerNotFoundException e) {
+			// expected
+		}
+		stockExchange.getStockPrice(Stock.TEA_C);
+		stockExchange.findStockPrice(Stock.JOE_C);
+		stockExchange.getGBCEAllShareIndex();
+		
+		assertEquals(3, metrics.getTradesRecorded());
+		assertEquals(1, metrics.getTradesRejected());
+		assertEquals(3, metrics.getTradesRetained());
+		assertEquals(2, metrics.getStockPriceQueries());
+		assertEquals(1, metrics.getIndexQueries());
+		assertEquals(3, metrics.getIngestionLag().getCount());
+		assertTrue(metrics.getIndexLatencyP99() > 0);
+		
+		ObjectName name = metrics.register("metricsTest");
+		try {
+			assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "TradesRecorded"));
+		} finally {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		}
+		
+		LatencyHistogram histogram = new LatencyHistogram();
+		for(long value = 1; value <= 1000; value++) {
+			histogram.record(value * 1000);
+		}
+		assertEquals(990000, histogram.getValueAtPercentile(99), 990000 / 32);
+		assertEquals(1000000, histogram.getValueAtPercentile(100), 1000000 / 32);
+	}
+	
+	@Test
+	public void eventTimeTest() throws TickerNotFoundException, TickerPriceNotAvailableException, NotEnoughDataPointsException {
+		Instant now = Instant.now();
+		BigDecimal lastDividend = TestStockExchange.POP_C_LAST_DIVIDEND;
+		stockExchange.recordTrade(Trade.buy(now, Stock.POP_C, 1, BigDecimal.valueOf(10.0)));
+		stockExchange.recordTrade(Trade.buy(now.minusMillis(300), Stock.POP_C, 1, BigDecimal.valueOf(20.0)));
+		assertTrue(lastDividend.divide(BigDecimal.valueOf(10.0), MATH_CTX).compareTo(stockExchange.getStockDividendYield(Stock.POP_C)) == 0);
+		assertTrue(BigDecimal.valueOf(15.0).compareTo(stockExchange.getStockPrice(Stock.POP_C)) == 0);
+		
+		ExchangeMetrics metrics = new ExchangeMetrics();
+		stockExchange.setMetrics(metrics);
+		stockExchange.setWatermarkPolicy(new WatermarkPolicy(Duration.ofSeconds(1)));
+		stockExchange.recordTrade(Trade.buy(now.plusMillis(500), Stock.POP_C, 1, BigDecimal.valueOf(40.0)));
+		stockExchange.recordTrade(Trade.buy(now.plusMillis(200), Stock.POP_C, 1, BigDecimal.valueOf(30.0)));
+		assertTrue(BigDecimal.valueOf(15.0).compareTo(stockExchange.getStockPrice(Stock.POP_C)) == 0);
+		stockExchange.recordTrade(Trade.buy(now.plusMillis(1600), Stock.POP_C, 1, BigDecimal.valueOf(50.0)));
+		assertEquals(now.plusMillis(600), stockExchange.getWatermark());
+		assertTrue(lastDividend.divide(BigDecimal.valueOf(40.0), MATH_CTX).compareTo(stockExchange.getStockDividendYield(Stock.POP_C)) == 0);
+		assertTrue(BigDecimal.valueOf(25.0).compareTo(stockExchange.getStockPrice(Stock.POP_C)) == 0);
+		
+		stockExchange.recordTrade(Trade.buy(now.plusMillis(100), Stock.POP_C, 1, BigDecimal.valueOf(90.0)));
+		assertEquals(1, metrics.getTradesLate());
+		stockExchange.setWatermarkPolicy(new WatermarkPolicy(Duration.ofSeconds(1), true));
+		assertTrue(lastDividend.divide(BigDecimal.valueOf(50.0), MATH_CTX).compareTo(stockExchange.getStockDividendYield(Stock.POP_C)) == 0);
+		stockExchange.recordTrade(Trade.buy(now.plusMillis(3000), Stock.POP_C, 1, BigDecimal.valueOf(60.0)));
+		try {
+			stockExchange.recordTrade(Trade.buy(now.plusMillis(1900), Stock.POP_C, 1, BigDecimal.valueOf(90.0)));
+			fail();
+		} catch (LateTradeException e) {
+			// expected
+		}
+		assertEquals(1, stockExchange.flushReorderBuffer());
+		assertEquals(4, metrics.getTradesRecorded());
+		assertEquals(2, metrics.getTradesLate());
+	}
+	
+	@Test
+	public void tradeFileLoaderTest() throws Exception {
+		Path csv = Files.createTempFile("trades", ".csv");
+		Path binary = Files.createTempFile("trades", ".bin");
+		try {
+			Instant base = Instant.now().minusSeconds(600).truncatedTo(ChronoUnit.SECONDS);
+			Stock[] stocks = {Stock.TEA_C, Stock.POP_C, Stock.ALE_C, Stock.GIN_P, Stock.JOE_C};
+			List<Trade> trades = new ArrayList<>();
+			TradeBatch batch = new TradeBatch(2, 16);
+			for(int k = 0; k < 500; k++) {
+				// blocks of trades in reverse time order, so that the chunks of the files overlap
+				Instant timestamp = base.plusMillis((k / 50) * 50000 + (49 - k % 50) * 1000 + k % 3 * 7);
+				Trade trade = Trade.sell(timestamp, stocks[k % stocks.length], k % 9 + 1, 100 + k % 13 * 25, 2);
+				trades.add(trade);
+				batch.add(timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano(), trade.stock, trade.tradeIndicator, trade.sharesQuantity, trade.priceTicks);
+			}
+			stockExchange.recordTrades(trades);
+			try(FileTradeArchive archive = new FileTradeArchive(csv)) {
+				archive.archive(trades);
+			}
+			TradeFileLoader.writeBinary(binary, batch);
+			
+			TradeFileLoader loader = new TradeFileLoader(ForkJoinPool.commonPool(), 1024);
+			StockExchange fromCsv = new TestStockExchange();
+			assertEquals(500, loader.loadCsv(csv, 2, fromCsv));
+			StockExchange fromBinary = new TestStockExchange();
+			assertEquals(500, loader.loadBinary(binary, fromBinary));
+			Instant latest = base.plusSeconds(600);
+			for(Stock stock: stocks) {
+				BigDecimal expected = stockExchange.getStockPrice(stock, latest, Duration.ofMinutes(15));
+				assertEquals(expected, fromCsv.getStockPrice(stock, latest, Duration.ofMinutes(15)));
+				assertEquals(expected, fromBinary.getStockPrice(stock, latest, Duration.ofMinutes(15)));
+				assertEquals(stockExchange.getStockDividendYield(stock), fromCsv.getStockDividendYield(stock));
+				assertEquals(stockExchange.getStockDividendYield(stock), fromBinary.getStockDividendYield(stock));
+			}
+		} finally {
+			Files.deleteIfExists(csv);
+			Files.deleteIfExists(binary);
+		}
+	}
+	
+	@Test
+	public void replayEngineTest() throws TickerNotFoundException, InterruptedException {
+		Instant base = Instant.now().minus(1, ChronoUnit.DAYS).truncatedTo(ChronoUnit.HOURS);
+		List<Trade> trades = Arrays.asList(
+				Trade.buy(base.plusSeconds(10), Stock.TEA_C, 1, BigDecimal.valueOf(10.0)),
+				Trade.sell(base.plusSeconds(70), Stock.TEA_C, 1, BigDecimal.valueOf(20.0)),
+				Trade.buy(base.plusSeconds(130), Stock.TEA_C, 2, BigDecimal.valueOf(45.0)));
+		Clock clock = stockExchange.getClock();
+		List<MarketSnapshot> snapshots = new ArrayList<>();
+		assertEquals(3, new ReplayEngine(stockExchange, Duration.ofMinutes(1), snapshots::add).replay(trades));
+		assertSame(clock, stockExchange.getClock());
+		
+		assertEquals(3, snapshots.size());
+		double[] expected = {10.0, 15.0, 30.0};
+		for(int i = 0; i < expected.length; i++) {
+			MarketSnapshot snapshot = snapshots.get(i);
+			assertEquals(base.plusSeconds(60 * (i + 1)), snapshot.timestamp);
+			assertEquals(expected[i], snapshot.getPrice(snapshot.rowOf(Stock.TEA_C)).doubleValue(), 1e-9);
+			assertEquals(expected[i], snapshot.getIndex().doubleValue(), 1e-9);
+		}
+		
+		List<MarketSnapshot> paced = new ArrayList<>();
+		ReplayEngine engine = new ReplayEngine(new TestStockExchange(), Duration.ofMinutes(1), paced::add);
+		engine.setSpeed(1000);
+		engine.replay(trades);
+		assertEquals(snapshots.size(), paced.size());
+		for(int i = 0; i < paced.size(); i++) {
+			assertEquals(snapshots.get(i).timestamp, paced.get(i).timestamp);
+			assertEquals(snapshots.get(i).getIndex(), paced.get(i).getIndex());
+		}
+	}
+	
+	@Test
+	public void publishedSnapshotTest() throws TickerNotFoundException, InterruptedException {
+		Instant now = Instant.now();
+		assertEquals(null, stockExchange.getPublishedSnapshot());
+		stockExchange.setSnapshotInterval(Duration.ZERO);
+		stockExchange.recordTrade(Trade.buy(now, Stock.TEA_C, 1, BigDecimal.valueOf(10.0)));
+		MarketSnapshot first = stockExchange.getPublishedSnapshot();
+		assertEquals(1, first.epoch);
+		assertEquals(10.0, first.getPrice(first.rowOf(Stock.TEA_C)).doubleValue(), 1e-9);
+		
+		stockExchange.recordTrades(Arrays.asList(Trade.buy(now, Stock.TEA_C, 1, BigDecimal.valueOf(20.0)),
+				Trade.sell(now, Stock.ALE_C, 1, BigDecimal.valueOf(5.0))));
+		MarketSnapshot second = stockExchange.getPublishedSnapshot();
+		assertEquals(2, second.epoch);
+		assertEquals(15.0, second.getPrice(second.rowOf(Stock.TEA_C)).doubleValue(), 1e-9);
+		assertEquals(5.0, second.getPrice(second.rowOf(Stock.ALE_C)).doubleValue(), 1e-9);
+		assertEquals(10.0, first.getPrice(first.rowOf(Stock.TEA_C)).doubleValue(), 1e-9);
+		assertFalse(first.isPriceAvailable(first.rowOf(Stock.ALE_C)));
+		
+		stockExchange.setSnapshotInterval(Duration.ofHours(1));
+		stockExchange.recordTrade(Trade.buy(now, Stock.TEA_C, 2, BigDecimal.valueOf(30.0)));
+		assertSame(second, stockExchange.getPublishedSnapshot());
+		MarketSnapshot third = stockExchange.publishSnapshot();
+		assertSame(third, stockExchange.getPublishedSnapshot());
+		assertEquals(3, third.epoch);
+		assertEquals(23.0, third.getPrice(third.rowOf(Stock.TEA_C)).doubleValue(), 1e-9);
+		
+		stockExchange.setSnapshotInterval(Duration.ZERO);
+		Thread writer = new Thread(() -> {
+			try {
+				for(int i = 0; i < 10000; i++) {
+					stockExchange.recordTrade(Trade.buy(now, Stock.JOE_C, 1, BigDecimal.valueOf(40.0)));
+				}
+			} catch (TickerNotFoundException e) {
+				throw new RuntimeException(e); //not expected
+			}
+		});
+		writer.start();
+		long epoch = third.epoch;
+		while(writer.isAlive()) {
+			MarketSnapshot snapshot = stockExchange.getPublishedSnapshot();
+			assertTrue(snapshot.epoch >= epoch);
+			epoch = snapshot.epoch;
+		}
+		writer.join();
+		assertEquals(third.epoch + 10000, stockExchange.getPublishedSnapshot().epoch);
+	}
+	
+	@Test
+	public void orderFlowTest() throws TickerNotFoundException {
+		Instant now = Instant.now();
+		stockExchange.recordTrade(Trade.buy(now.minus(20, ChronoUnit.MINUTES), Stock.TEA_C, 5, BigDecimal.valueOf(50.0)));
+		stockExchange.recordTrade(Trade.buy(now, Stock.TEA_C, 2, BigDecimal.valueOf(10.0)));
+		stockExchange.recordTrades(Arrays.asList(Trade.buy(now, Stock.TEA_C, 2, BigDecimal.valueOf(20.0)),
+				Trade.sell(now, Stock.TEA_C, 1, BigDecimal.valueOf(30.0))));
+		
+		OrderFlow flow = stockExchange.getOrderFlow(Stock.TEA_C);
+		assertEquals(4, flow.buyVolume);
+		assertEquals(1, flow.sellVolume);
+		assertEquals(2, flow.buyCount);
+		assertEquals(1, flow.sellCount);
+		assertEquals(15.0, flow.buyVwap.doubleValue(), 1e-9);
+		assertEquals(30.0, flow.sellVwap.doubleValue(), 1e-9);
+		assertEquals(0.6, flow.getImbalance(), 1e-9);
+		assertEquals(2.0 / StockExchange.PRICE_WINDOW.getSeconds(), flow.getBuyRate(), 1e-12);
+		
+		OrderFlow none = stockExchange.getOrderFlow(Stock.ALE_C);
+		assertEquals(0, none.getCount());
+		assertEquals(null, none.buyVwap);
+		assertTrue(Double.isNaN(none.getImbalance()));
+		
+		// the window ends at the instant queried, earlier windows are read as well
+		stockExchange.recordTrade(Trade.sell(now.minus(10, ChronoUnit.MINUTES), Stock.POP_C, 3, BigDecimal.valueOf(7.0)));
+		assertEquals(3, stockExchange.getOrderFlow(Stock.POP_C).sellVolume);
+		assertEquals(1, stockExchange.getOrderFlow(Stock.POP_C, now.minus(9, ChronoUnit.MINUTES)).sellCount);
+		assertEquals(0, stockExchange.getOrderFlow(Stock.POP_C, now.minus(11, ChronoUnit.MINUTES)).getCount());
+		assertEquals(0, stockExchange.getOrderFlow(Stock.TEA_C, now.minus(1, ChronoUnit.MINUTES)).getCount());
+	}
+	
+	@Test
+	public void tradeFileLoaderRoundTripTest() throws Exception {
+		Path csv = Files.createTempFile("trades", ".csv");
+		Path binary = Files.createTempFile("trades", ".bin");
+		try {
+			// in time order, as archived, across the end of a leap day, in chunks of a few lines each
+			int count = 40;
+			Instant base = Instant.parse("2016-02-29T23:59:40Z");
+			Stock[] stocks = {Stock.TEA_C, Stock.POP_C, Stock.ALE_C, Stock.GIN_P, Stock.JOE_C};
+			TradeBatch batch = new TradeBatch(2, count);
+			StringBuilder lines = new StringBuilder();
+			for(int k = 0; k < count; k++) {
+				Instant timestamp = base.plusMillis(k * 1037);
+				Stock stock = stocks[k % stocks.length];
+				Trade.TradeIndicator indicator = k % 3 == 0 ? Trade.TradeIndicator.SELL : Trade.TradeIndicator.BUY;
+				long priceTicks = 100 + k % 13 * 25;
+				batch.add(timestamp.getEpochSecond() * 1_000_000_000L + timestamp.getNano(), stock, indicator, k % 9 + 1, priceTicks);
+				lines.append(timestamp).append(',').append(stock.symbol).append(',').append(indicator).append(',')
+					.append(k % 9 + 1).append(',').append(BigDecimal.valueOf(priceTicks, 2)).append('\n');
+			}
+			Files.write(csv, lines.toString().getBytes(StandardCharsets.UTF_8));
+			TradeFileLoader.writeBinary(binary, batch);
+			
+			TradeFileLoader loader = new TradeFileLoader(ForkJoinPool.commonPool(), 256);
+			StockExchange fromCsv = new TestStockExchange();
+			assertEquals(count, loader.loadCsv(csv, 2, fromCsv));
+			StockExchange fromBinary = new TestStockExchange();
+			assertEquals(count, loader.loadBinary(binary, fromBinary));
+			Instant end = base.plusSeconds(count * 2);
+			Comparator<Trade> order = Comparator.comparing((Trade trade) -> trade.timestamp);
+			for(StockExchange loaded: new StockExchange[] {fromCsv, fromBinary}) {
+				List<Trade> trades = new ArrayList<>(loaded.getLatestTrades(end, Duration.ofMinutes(2)));
+				trades.sort(order);
+				assertEquals(count, trades.size());
+				for(int k = 0; k < count; k++) {
+					Trade trade = trades.get(k);
+					assertEquals(base.plusMillis(k * 1037), trade.timestamp);
+					assertSame(batch.getStock(k), trade.stock);
+					assertEquals(batch.getTradeIndicator(k), trade.tradeIndicator);
+					assertEquals(batch.getSharesQuantity(k), trade.sharesQuantity);
+					assertEquals(BigDecimal.valueOf(batch.getPriceTicks(k), 2), trade.price);
+				}
+			}
+			
+			// days past the end of their month are rejected
+			for(String date: new String[] {"2015-02-29", "2016-02-30", "2016-04-31"}) {
+				Files.write(csv, (date + "T10:00:00Z,TEA,BUY,1,1.00\n").getBytes(StandardCharsets.UTF_8));
+				StockExchange rejected = new TestStockExchange();
+				try {
+					loader.loadCsv(csv, 2, rejected);
+					fail(date);
+				} catch (IOException e) {
+					assertTrue(e.getMessage().contains("invalid time stamp"));
+				}
+				assertEquals(0, rejected.getLatestTrades(Instant.parse(date.substring(0, 8) + "28T10:00:00Z"), Duration.ofDays(5)).size());
+			}
+		} finally {
+			Files.deleteIfExists(csv);
+			Files.deleteIfExists(binary);
+		}
+	}
+	
 	@Test
 	public void priceEarningsRatioTest() throws TickerNotFoundException, EPSNotAvailableException {
 		InstantPacer pacer = new InstantPacer();
@@ -137,6 +1094,67 @@ public class StockExchangeTest {
 				.compareTo(stockExchange.getGBCEAllShareIndex().round(MATH_CTX)) == 0);
 	}
 	
+	@Test
+	public void allShareIndexBoundaryTest() throws TickerNotFoundException, NotEnoughDataPointsException {
+		Instant base = Instant.parse("2016-03-01T10:00:00Z");
+		stockExchange.recordTrade(Trade.buy(base.plusMillis(200), Stock.TEA_C, 1, BigDecimal.valueOf(10.0)));
+		stockExchange.recordTrade(Trade.buy(base.plusMillis(700), Stock.TEA_C, 1, BigDecimal.valueOf(20.0)));
+		stockExchange.recordTrade(Trade.sell(base.plusMillis(500), Stock.ALE_C, 1, BigDecimal.valueOf(5.0)));
+		stockExchange.recordTrade(Trade.sell(base.plusSeconds(60), Stock.ALE_C, 1, BigDecimal.valueOf(7.0)));
+		stockExchange.recordTrade(Trade.buy(base.plusSeconds(120), Stock.POP_C, 1, BigDecimal.valueOf(3.0)));
+		Instant start = base.plus(StockExchange.PRICE_WINDOW);
+		
+		// the trades of the second the window starts in are those performed after its start, as for the prices
+		stockExchange.setClock(Clock.fixed(start.plusMillis(400), ZoneOffset.UTC));
+		assertEquals(20.0, stockExchange.getStockPrice(Stock.TEA_C).doubleValue(), 1e-9);
+		assertEquals(Math.cbrt(20.0 * 6.0 * 3.0), stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		
+		// each stock leaves the index as its oldest trade leaves the window
+		stockExchange.setClock(Clock.fixed(start.plusMillis(600), ZoneOffset.UTC));
+		assertEquals(Math.cbrt(20.0 * 7.0 * 3.0), stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		stockExchange.setClock(Clock.fixed(start.plusSeconds(1), ZoneOffset.UTC));
+		assertEquals(Math.sqrt(7.0 * 3.0), stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		stockExchange.setClock(Clock.fixed(start.plusSeconds(90), ZoneOffset.UTC));
+		assertEquals(3.0, stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		
+		// a late trade re-prices its stock, an earlier window is calculated on its own
+		stockExchange.recordTrade(Trade.buy(base.plusSeconds(100), Stock.TEA_C, 1, BigDecimal.valueOf(9.0)));
+		assertEquals(Math.sqrt(9.0 * 3.0), stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		stockExchange.setClock(Clock.fixed(start.plusMillis(400), ZoneOffset.UTC));
+		double earlier = Math.pow(stockExchange.getStockPrice(Stock.TEA_C).doubleValue() * 6.0 * 3.0, 1.0 / 3);
+		assertEquals(earlier, stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		stockExchange.setClock(Clock.fixed(start.plusSeconds(110), ZoneOffset.UTC));
+		assertEquals(3.0, stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+	}
+	
+	@Test
+	public void allShareIndexIncrementalTest() throws TickerNotFoundException, NotEnoughDataPointsException {
+		Instant now = Instant.now();
+		stockExchange.recordTrade(Trade.buy(now.minus(20, ChronoUnit.MINUTES), Stock.JOE_C, 1, BigDecimal.valueOf(50.0)));
+		stockExchange.recordTrade(Trade.buy(now, Stock.TEA_C, 1, BigDecimal.valueOf(4.0)));
+		assertTrue(BigDecimal.valueOf(4.0).compareTo(stockExchange.getGBCEAllShareIndex()) == 0);
+		
+		stockExchange.recordTrade(Trade.sell(now, Stock.POP_C, 1, BigDecimal.valueOf(9.0)));
+		assertEquals(6.0, stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+		
+		stockExchange.recordTrade(Trade.sell(now, Stock.TEA_C, 3, BigDecimal.valueOf(12.0)));
+		assertEquals(Math.sqrt(stockExchange.getStockPrice(Stock.TEA_C).doubleValue() * 9.0), stockExchange.getGBCEAllShareIndex().doubleValue(), 1e-9);
+	}
+	
+	@Test
+	public void allShareIndexWindowTest() throws TickerNotFoundException {
+		Instant now = Instant.now();
+		stockExchange.recordTrade(Trade.buy(now.minus(14, ChronoUnit.MINUTES), Stock.TEA_C, 1, BigDecimal.valueOf(10.0)));
+		stockExchange.recordTrade(Trade.buy(now, Stock.TEA_C, 1, BigDecimal.valueOf(40.0)));
+		assertEquals(25.0, stockExchange.snapshot(now).getIndex().doubleValue(), 1e-9);
+		// a later window leaves the older trade out, an earlier one is calculated again rather than read as the latest
+		assertEquals(40.0, stockExchange.snapshot(now.plus(2, ChronoUnit.MINUTES)).getIndex().doubleValue(), 1e-9);
+		assertEquals(25.0, stockExchange.snapshot(now).getIndex().doubleValue(), 1e-9);
+		stockExchange.recordTrade(Trade.buy(now, Stock.POP_C, 1, BigDecimal.valueOf(9.0)));
+		assertEquals(Math.sqrt(25.0 * 9.0), stockExchange.snapshot(now).getIndex().doubleValue(), 1e-9);
+		assertEquals(Math.sqrt(40.0 * 9.0), stockExchange.snapshot(now.plus(2, ChronoUnit.MINUTES)).getIndex().doubleValue(), 1e-9);
+	}
+	
 	private static class InstantPacer {
 		private Instant current = Instant.now();
 		
@@ -146,6 +1164,12 @@ public class StockExchangeTest {
 			return rer;
 		}
 
+		public Instant getInstantAndIncrementByMillis(int millis) {
+			Instant rer = current;
+			current = current.plusMillis(millis);
+			return rer;
+		}
+
 		public Instant getInstant() {
 			return current;
 		}
@@ -160,6 +1184,16 @@ public class StockExchangeTest {
 			super();
 			setup();
 		}
+		
+		public TestStockExchange(FixedPoint fixedPoint) {
+			super(fixedPoint);
+			setup();
+		}
+		
+		public TestStockExchange(PrecisionPolicy precisionPolicy) {
+			super(precisionPolicy);
+			setup();
+		}
 
 		private void setup() {
 			try {